@@ -8,6 +8,9 @@ import org.lwjgl.opengl.Display;
 import org.lwjgl.opengl.DisplayMode;
 import org.lwjgl.opengl.PixelFormat;
 
+import com.ra4king.opengl.util.render.GLState;
+import com.ra4king.opengl.util.render.GLStats;
+
 /**
  * @author Roi Atalla
  */
@@ -163,6 +166,9 @@ public abstract class GLProgram {
 				Display.update();
 				Stopwatch.stop();
 				
+				GLState.endFrame();
+				GLStats.endFrame();
+				
 				if(checkError) {
 					Utils.checkGLError("render");
 				}
@@ -9,91 +9,208 @@ import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
 import java.util.ArrayList;
 
-import org.lwjgl.opengl.APPLEVertexArrayObject;
-import org.lwjgl.opengl.ARBVertexArrayObject;
-import org.lwjgl.opengl.GLContext;
+import org.lwjgl.opengl.GL32;
+
+import com.ra4king.opengl.util.buffers.BufferArena;
+import com.ra4king.opengl.util.render.CommandList;
+import com.ra4king.opengl.util.render.DrawCommandBuffer;
+import com.ra4king.opengl.util.render.GLState;
+import com.ra4king.opengl.util.render.GLStats;
+import com.ra4king.opengl.util.render.GLStats.Counter;
+import com.ra4king.opengl.util.render.RenderUtils;
 
 /**
  * @author Roi Atalla
  */
 public class Mesh {
-	private final static boolean IS_MAC = System.getProperty("os.name").toLowerCase().contains("mac");
-	private final static boolean HAS_VAO = GLContext.getCapabilities().OpenGL30;
-	
 	private int vao;
+	private int vertexBuffer, indexBuffer;
 	private ArrayList<RenderCommand> renderCommands;
+	private DrawCommandBuffer commandBuffer;
+	
+	private BufferArena arena;
+	private BufferArena.Allocation allocation;
+	private int encodedGeneration;
 	
 	public Mesh(ByteBuffer data, ArrayList<Attribute> attributes, ArrayList<RenderCommand> renderCommands) {
 		this(data, attributes, renderCommands, null);
 	}
 	
 	public Mesh(ByteBuffer data, ArrayList<Attribute> attributes, ArrayList<RenderCommand> renderCommands, ByteBuffer indices) {
-		if(indices == null)
-			for(RenderCommand r : renderCommands)
-				if(r.isIndexedCmd)
-					throw new IllegalArgumentException("One of the render commands requires indices when none is supplied.");
+		checkIndices(renderCommands, indices);
 		
 		this.renderCommands = renderCommands;
 		
-		int vbo1 = glGenBuffers();
-		glBindBuffer(GL_ARRAY_BUFFER, vbo1);
+		// the element array binding is part of the VAO state, don't modify whichever VAO is currently bound
+		GLState.bindVertexArray(0);
+		
+		vertexBuffer = glGenBuffers();
+		GLState.bindBuffer(GL_ARRAY_BUFFER, vertexBuffer);
 		glBufferData(GL_ARRAY_BUFFER, data, GL_STATIC_DRAW);
-		glBindBuffer(GL_ARRAY_BUFFER, 0);
+		GLStats.add(Counter.UPLOAD_BYTES, data.remaining());
+		GLState.bindBuffer(GL_ARRAY_BUFFER, 0);
 		
-		int vbo2 = -1;
 		if(indices != null) {
-			vbo2 = glGenBuffers();
+			indexBuffer = glGenBuffers();
 			
-			glBindBuffer(GL_ELEMENT_ARRAY_BUFFER, vbo2);
+			GLState.bindBuffer(GL_ELEMENT_ARRAY_BUFFER, indexBuffer);
 			glBufferData(GL_ELEMENT_ARRAY_BUFFER, indices, GL_STATIC_DRAW);
-			glBindBuffer(GL_ELEMENT_ARRAY_BUFFER, 0);
+			GLStats.add(Counter.UPLOAD_BYTES, indices.remaining());
+			GLState.bindBuffer(GL_ELEMENT_ARRAY_BUFFER, 0);
 		}
 		
-		vao = HAS_VAO ? glGenVertexArrays() : (IS_MAC ? APPLEVertexArrayObject.glGenVertexArraysAPPLE() : ARBVertexArrayObject.glGenVertexArrays());
-		if(HAS_VAO)
-			glBindVertexArray(vao);
-		else if(IS_MAC)
-			APPLEVertexArrayObject.glBindVertexArrayAPPLE(vao);
-		else
-			ARBVertexArrayObject.glBindVertexArray(vao);
+		vao = RenderUtils.glGenVertexArrays();
+		GLState.bindVertexArray(vao);
 		
-		glBindBuffer(GL_ARRAY_BUFFER, vbo1);
+		GLState.bindBuffer(GL_ARRAY_BUFFER, vertexBuffer);
 		for(Attribute attrib : attributes) {
 			glEnableVertexAttribArray(attrib.index);
 			glVertexAttribPointer(attrib.index, attrib.size, attrib.type.dataType, attrib.type.normalized, 0, attrib.offset);
 		}
 		
-		if(vbo2 > -1)
-			glBindBuffer(GL_ELEMENT_ARRAY_BUFFER, vbo2);
+		if(indexBuffer != 0)
+			GLState.bindBuffer(GL_ELEMENT_ARRAY_BUFFER, indexBuffer);
 		
-		if(HAS_VAO)
-			glBindVertexArray(0);
-		else if(IS_MAC)
-			APPLEVertexArrayObject.glBindVertexArrayAPPLE(0);
-		else
-			ARBVertexArrayObject.glBindVertexArray(0);
+		GLState.bindVertexArray(0);
+		
+		GLState.bindBuffer(GL_ARRAY_BUFFER, 0);
+		
+		// a single command gains nothing from going through the indirect buffer
+		if(renderCommands.size() > 1) {
+			commandBuffer = new DrawCommandBuffer(false, renderCommands.size());
+			encode(commandBuffer, 1);
+		}
+	}
+	
+	/**
+	 * Places the mesh's vertices and indices in the arena instead of in buffers of its own. The mesh then draws from the
+	 * VAO of the arena page it landed in, with base vertex offsets.
+	 */
+	public Mesh(BufferArena arena, ByteBuffer data, ArrayList<Attribute> attributes, ArrayList<RenderCommand> renderCommands, ByteBuffer indices) {
+		checkIndices(renderCommands, indices);
+		
+		this.renderCommands = renderCommands;
+		this.arena = arena;
+		
+		allocation = arena.allocate(data, attributes, indices);
+		
+		commandBuffer = new DrawCommandBuffer(false, renderCommands.size());
+		encode(commandBuffer, 1);
+		encodedGeneration = allocation.getGeneration();
+	}
+	
+	private static void checkIndices(ArrayList<RenderCommand> renderCommands, ByteBuffer indices) {
+		if(indices == null)
+			for(RenderCommand r : renderCommands)
+				if(r.isIndexedCmd)
+					throw new IllegalArgumentException("One of the render commands requires indices when none is supplied.");
+	}
+	
+	public int getVAO() {
+		checkNotFreed();
+		return allocation != null ? allocation.getVAO() : vao;
+	}
+	
+	private void checkNotFreed() {
+		if(allocation != null && allocation.isFreed())
+			throw new IllegalStateException("Mesh has been freed.");
+	}
+	
+	public BufferArena.Allocation getAllocation() {
+		return allocation;
+	}
+	
+	/**
+	 * Releases this mesh's space in its arena. Does nothing for meshes with their own buffers.
+	 */
+	public void free() {
+		if(allocation != null && !allocation.isFreed())
+			arena.free(allocation);
+	}
+	
+	/**
+	 * Deletes the indirect command buffer and either this mesh's VAO and buffers or its space in its arena. The mesh
+	 * cannot be rendered afterwards.
+	 */
+	public void destroy() {
+		if(commandBuffer != null) {
+			commandBuffer.destroy();
+			commandBuffer = null;
+		}
 		
-		glBindBuffer(GL_ARRAY_BUFFER, 0);
-		glBindBuffer(GL_ELEMENT_ARRAY_BUFFER, 0);
+		if(allocation != null)
+			free();
+		else if(vao != 0) {
+			GLState.deleteVertexArray(vao);
+			GLState.deleteBuffer(vertexBuffer);
+			if(indexBuffer != 0)
+				GLState.deleteBuffer(indexBuffer);
+			
+			vao = 0;
+		}
 	}
 	
+	/**
+	 * Leaves this mesh's VAO bound so that consecutive renders of the same mesh don't rebind it. Code that binds a
+	 * GL_ELEMENT_ARRAY_BUFFER or sets attribute pointers afterwards must first bind its own VAO through GLState,
+	 * otherwise it modifies this mesh's VAO.
+	 */
 	public void render() {
-		if(HAS_VAO)
-			glBindVertexArray(vao);
-		else if(IS_MAC)
-			APPLEVertexArrayObject.glBindVertexArrayAPPLE(vao);
+		GLState.bindVertexArray(getVAO());
+		
+		// the arena moves allocations when defragmenting
+		if(allocation != null && encodedGeneration != allocation.getGeneration()) {
+			commandBuffer.clear();
+			encode(commandBuffer, 1);
+			encodedGeneration = allocation.getGeneration();
+		}
+		
+		if(commandBuffer != null)
+			commandBuffer.submit();
 		else
-			ARBVertexArrayObject.glBindVertexArray(vao);
+			for(RenderCommand r : renderCommands)
+				r.render();
+	}
+	
+	/**
+	 * Records this mesh's draws into the list instead of issuing them.
+	 */
+	public void render(CommandList list) {
+		renderInstanced(list, 1);
+	}
+	
+	public void renderInstanced(CommandList list, int instanceCount) {
+		list.bindVertexArray(getVAO());
+		
+		int baseVertex = allocation != null ? allocation.getBaseVertex() : 0;
+		int indexOffset = allocation != null ? allocation.getIndexOffset() : 0;
+		
+		for(RenderCommand r : renderCommands)
+			r.record(list, instanceCount, baseVertex, indexOffset);
+	}
+	
+	/**
+	 * Appends all render commands to the buffer. The buffer must be submitted while this mesh's VAO is bound.
+	 */
+	public void encode(DrawCommandBuffer buffer, int instanceCount) {
+		checkNotFreed();
+		
+		int baseVertex = allocation != null ? allocation.getBaseVertex() : 0;
+		int indexOffset = allocation != null ? allocation.getIndexOffset() : 0;
 		
 		for(RenderCommand r : renderCommands)
-			r.render();
+			r.encode(buffer, instanceCount, baseVertex, indexOffset);
+	}
+	
+	public void renderInstanced(int instanceCount) {
+		GLState.bindVertexArray(getVAO());
 		
-		if(HAS_VAO)
-			glBindVertexArray(0);
-		else if(IS_MAC)
-			APPLEVertexArrayObject.glBindVertexArrayAPPLE(0);
+		if(allocation != null)
+			for(RenderCommand r : renderCommands)
+				r.renderInstanced(instanceCount, allocation.getBaseVertex(), allocation.getIndexOffset());
 		else
-			ARBVertexArrayObject.glBindVertexArray(0);
+			for(RenderCommand r : renderCommands)
+				r.renderInstanced(instanceCount);
 	}
 	
 	public static class RenderCommand {
@@ -137,20 +254,37 @@ public class Mesh {
 			return count;
 		}
 		
+		/**
+		 * Appends the indices at b's position, growing b if needed. Use the returned buffer from then on.
+		 */
 		public ByteBuffer storeIndices(ByteBuffer b, String[] data) {
-			if(count != 0)
-				throw new IllegalArgumentException("Data already stored.");
+			setStorage(b.position(), data.length);
 			
-			start = b.position();
-			count = data.length;
-			
-			ByteBuffer b2 = ByteBuffer.allocate(start + count * type.size).order(ByteOrder.nativeOrder());
-			b2.put((ByteBuffer)b.flip());
+			ByteBuffer b2 = ensureRemaining(b, count * type.size);
 			type.parse(b2, data);
 			
 			return b2;
 		}
 		
+		/**
+		 * For loaders that write the indices themselves.
+		 * 
+		 * @param start The byte offset of the first index.
+		 */
+		public void setStorage(int start, int count) {
+			if(!isIndexedCmd)
+				throw new IllegalStateException("Array commands have no indices.");
+			if(this.count != 0)
+				throw new IllegalArgumentException("Data already stored.");
+			
+			this.start = start;
+			this.count = count;
+		}
+		
+		public RenderCommandType getType() {
+			return type;
+		}
+		
 		private static int getPrimitive(String name) {
 			switch(name) {
 				case "triangles":
@@ -177,6 +311,51 @@ public class Mesh {
 				glDrawElements(primitive, count, type.dataType, start);
 			else
 				glDrawArrays(primitive, start, count);
+			
+			GLStats.increment(Counter.DRAW_CALLS);
+			GLStats.increment(Counter.DRAWS);
+		}
+		
+		public void encode(DrawCommandBuffer buffer, int instanceCount) {
+			encode(buffer, instanceCount, 0, 0);
+		}
+		
+		/**
+		 * @param baseVertex  Added to every vertex index.
+		 * @param indexOffset The byte offset of the mesh's indices in the element buffer.
+		 */
+		public void encode(DrawCommandBuffer buffer, int instanceCount, int baseVertex, int indexOffset) {
+			if(isIndexedCmd)
+				buffer.addElements(primitive, type.dataType, count, (indexOffset + start) / type.size, baseVertex, instanceCount, 0);
+			else
+				buffer.addArrays(primitive, baseVertex + start, count, instanceCount, 0);
+		}
+		
+		public void renderInstanced(int instanceCount) {
+			if(isIndexedCmd)
+				RenderUtils.glDrawElementsInstanced(primitive, count, type.dataType, start, instanceCount);
+			else
+				RenderUtils.glDrawArraysInstanced(primitive, start, count, instanceCount);
+			
+			GLStats.increment(Counter.DRAW_CALLS);
+			GLStats.add(Counter.DRAWS, instanceCount);
+		}
+		
+		public void record(CommandList list, int instanceCount, int baseVertex, int indexOffset) {
+			if(isIndexedCmd)
+				list.drawElements(primitive, count, type.dataType, indexOffset + start, instanceCount, baseVertex);
+			else
+				list.drawArrays(primitive, baseVertex + start, count, instanceCount);
+		}
+		
+		public void renderInstanced(int instanceCount, int baseVertex, int indexOffset) {
+			if(isIndexedCmd)
+				GL32.glDrawElementsInstancedBaseVertex(primitive, count, type.dataType, indexOffset + start, instanceCount, baseVertex);
+			else
+				RenderUtils.glDrawArraysInstanced(primitive, baseVertex + start, count, instanceCount);
+			
+			GLStats.increment(Counter.DRAW_CALLS);
+			GLStats.add(Counter.DRAWS, instanceCount);
 		}
 	}
 	
@@ -237,6 +416,7 @@ public class Mesh {
 		
 		private AttributeType type;
 		private int offset;
+		private int vertexCount;
 		
 		public Attribute(int index, String type, int size) {
 			this(index, AttributeType.getAttributeType(type), size);
@@ -248,15 +428,61 @@ public class Mesh {
 			this.size = size;
 		}
 		
+		public AttributeType getType() {
+			return type;
+		}
+		
+		/**
+		 * @return The byte offset of this attribute's data in the mesh's vertex data.
+		 */
+		public int getOffset() {
+			return offset;
+		}
+		
+		public int getVertexCount() {
+			return vertexCount;
+		}
+		
+		/**
+		 * Appends the data at b's position, growing b if needed. Use the returned buffer from then on.
+		 */
 		public ByteBuffer storeData(ByteBuffer b, String[] data) {
-			offset = b.position();
+			setStorage(b.position(), data.length);
 			
-			ByteBuffer b2 = ByteBuffer.allocate(offset + data.length * type.size).order(ByteOrder.nativeOrder());
-			b2.put((ByteBuffer)b.flip());
+			ByteBuffer b2 = ensureRemaining(b, data.length * type.size);
 			type.parse(b2, data);
 			
 			return b2;
 		}
+		
+		/**
+		 * For loaders that write the data themselves.
+		 * 
+		 * @param offset     The byte offset of the first value.
+		 * @param valueCount The number of values, size per vertex.
+		 */
+		public void setStorage(int offset, int valueCount) {
+			this.offset = offset;
+			vertexCount = valueCount / size;
+		}
+	}
+	
+	/**
+	 * Returns b if it has room for bytes more bytes, otherwise a copy at least twice as large, so that appending n
+	 * values costs O(n) copies overall. Direct buffers stay direct.
+	 */
+	public static ByteBuffer ensureRemaining(ByteBuffer b, int bytes) {
+		if(b.capacity() - b.position() >= bytes) {
+			b.limit(b.capacity());
+			return b;
+		}
+		
+		int capacity = Math.max(b.capacity() * 2, b.position() + bytes);
+		ByteBuffer b2 = b.isDirect() ? ByteBuffer.allocateDirect(capacity) : ByteBuffer.allocate(capacity);
+		b2.order(ByteOrder.nativeOrder());
+		b2.put((ByteBuffer)b.flip());
+		
+		return b2;
 	}
 	
 	public static enum AttributeType {
@@ -0,0 +1,214 @@
+package com.ra4king.opengl.util;
+
+import static org.lwjgl.opengl.GL11.*;
+import static org.lwjgl.opengl.GL20.*;
+import static org.lwjgl.opengl.GL41.*;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+import org.lwjgl.BufferUtils;
+import org.lwjgl.opengl.ContextCapabilities;
+import org.lwjgl.opengl.GLContext;
+
+/**
+ * Stores linked program binaries on disk so that ShaderProgram can skip compiling and linking on later runs.
+ *
+ * Binaries are keyed by a hash of everything that affects the linked program: the shader sources, the pre-link
+ * configuration and the driver's vendor, renderer and version strings. A binary the driver rejects is deleted and
+ * the program is built from source again.
+ *
+ * @author Roi Atalla
+ */
+public class ProgramBinaryCache {
+	private final File directory;
+	private final String driver;
+
+	private int hits, misses, rejected;
+
+	public ProgramBinaryCache(File directory) {
+		if(!isSupported())
+			throw new UnsupportedOperationException("Program binaries not supported on this system.");
+
+		if(!directory.isDirectory() && !directory.mkdirs())
+			throw new IllegalArgumentException("Cannot create cache directory: " + directory);
+
+		this.directory = directory;
+
+		driver = glGetString(GL_VENDOR) + "\0" + glGetString(GL_RENDERER) + "\0" + glGetString(GL_VERSION);
+	}
+
+	/**
+	 * Some drivers expose the extension without supporting any binary formats.
+	 */
+	public static boolean isSupported() {
+		ContextCapabilities caps = GLContext.getCapabilities();
+		return (caps.OpenGL41 || caps.GL_ARB_get_program_binary) && glGetInteger(GL_NUM_PROGRAM_BINARY_FORMATS) > 0;
+	}
+
+	public File getDirectory() {
+		return directory;
+	}
+
+	public int getHits() {
+		return hits;
+	}
+
+	public int getMisses() {
+		return misses;
+	}
+
+	/**
+	 * @return The number of stored binaries the driver refused to load.
+	 */
+	public int getRejected() {
+		return rejected;
+	}
+
+	/**
+	 * Hashes the driver strings and the given parts into a key. Null parts are allowed and differ from empty ones.
+	 */
+	public String getKey(String ... parts) {
+		MessageDigest digest;
+		try {
+			digest = MessageDigest.getInstance("SHA-256");
+		} catch(NoSuchAlgorithmException exc) {
+			throw new RuntimeException(exc);
+		}
+
+		update(digest, driver);
+		for(String part : parts)
+			update(digest, part);
+
+		StringBuilder key = new StringBuilder();
+		for(byte b : digest.digest())
+			key.append(String.format("%02x", b));
+
+		return key.toString();
+	}
+
+	private static void update(MessageDigest digest, String part) {
+		// the length prefix keeps ("ab", "c") and ("a", "bc") apart
+		if(part == null) {
+			digest.update(new byte[] { -1, -1, -1, -1 });
+			return;
+		}
+
+		byte[] bytes = part.getBytes(StandardCharsets.UTF_8);
+		int length = bytes.length;
+		digest.update(new byte[] { (byte)(length >>> 24), (byte)(length >>> 16), (byte)(length >>> 8), (byte)length });
+		digest.update(bytes);
+	}
+
+	/**
+	 * Creates a program from the binary stored under key.
+	 *
+	 * @return The linked program, or 0 if there is no binary or the driver rejected it.
+	 */
+	public int load(String key) {
+		File file = getFile(key);
+		if(!file.isFile()) {
+			misses++;
+			return 0;
+		}
+
+		int format;
+		ByteBuffer binary;
+		try(DataInputStream in = new DataInputStream(new FileInputStream(file))) {
+			format = in.readInt();
+
+			// a corrupt length would otherwise throw NegativeArraySizeException or OutOfMemoryError
+			int length = in.readInt();
+			if(length <= 0 || length != file.length() - 8)
+				throw new IOException("Invalid binary length: " + length);
+
+			byte[] bytes = new byte[length];
+			in.readFully(bytes);
+
+			binary = BufferUtils.createByteBuffer(bytes.length);
+			binary.put(bytes).flip();
+		} catch(IOException exc) {
+			file.delete();
+			misses++;
+			return 0;
+		}
+
+		int program = glCreateProgram();
+		glProgramBinary(program, format, binary);
+
+		if(glGetProgrami(program, GL_LINK_STATUS) == GL_FALSE) {
+			// usually a driver update that kept the same version string
+			glDeleteProgram(program);
+			file.delete();
+			rejected++;
+			misses++;
+			return 0;
+		}
+
+		hits++;
+		return program;
+	}
+
+	/**
+	 * Must be called after a program was linked with GL_PROGRAM_BINARY_RETRIEVABLE_HINT set. Failing to write the
+	 * binary only costs a rebuild on the next run, so IO errors are reported but not thrown.
+	 */
+	public void store(String key, int program) {
+		int length = glGetProgrami(program, GL_PROGRAM_BINARY_LENGTH);
+		if(length <= 0)
+			return;
+
+		IntBuffer lengthBuffer = BufferUtils.createIntBuffer(1);
+		IntBuffer formatBuffer = BufferUtils.createIntBuffer(1);
+		ByteBuffer binary = BufferUtils.createByteBuffer(length);
+		glGetProgramBinary(program, lengthBuffer, formatBuffer, binary);
+
+		byte[] bytes = new byte[lengthBuffer.get(0)];
+		binary.get(bytes);
+
+		File file = getFile(key);
+		File temp = new File(directory, key + ".tmp");
+		try(DataOutputStream out = new DataOutputStream(new FileOutputStream(temp))) {
+			out.writeInt(formatBuffer.get(0));
+			out.writeInt(bytes.length);
+			out.write(bytes);
+		} catch(IOException exc) {
+			System.err.println("Failed to store program binary: " + exc);
+			temp.delete();
+			return;
+		}
+
+		// readers never see a partially written binary
+		file.delete();
+		if(!temp.renameTo(file)) {
+			System.err.println("Failed to store program binary: cannot rename " + temp);
+			temp.delete();
+		}
+	}
+
+	/**
+	 * Deletes all stored binaries.
+	 */
+	public void clear() {
+		File[] files = directory.listFiles();
+		if(files == null)
+			return;
+
+		for(File file : files)
+			if(file.getName().endsWith(".bin"))
+				file.delete();
+	}
+
+	private File getFile(String key) {
+		return new File(directory, key + ".bin");
+	}
+}
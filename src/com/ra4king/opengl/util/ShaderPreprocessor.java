@@ -0,0 +1,253 @@
+package com.ra4king.opengl.util;
+
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.TreeSet;
+
+/**
+ * Expands #include directives and injects feature #defines into GLSL sources.
+ *
+ * Includes are written as #include "path" or #include &lt;path&gt;. Relative paths resolve against the directory of
+ * the including file, paths starting with '/' against the root of the loader. Paths may climb above that root with
+ * "..", the loader then resolves them, against its prefix for the (Class, prefix) constructor. Every file is included at most once
+ * per expansion, and #line directives keep compiler errors pointing at the right file and line: each file gets a
+ * source string number, see getFileName(int).
+ *
+ * Loaded files are cached, call clearCache() to pick up changes on disk.
+ *
+ * @author Roi Atalla
+ */
+public class ShaderPreprocessor {
+	public interface SourceLoader {
+		/**
+		 * @return The contents of the file at path, or null if it does not exist.
+		 */
+		String load(String path);
+	}
+
+	private final SourceLoader loader;
+
+	private final HashMap<String, String> files = new HashMap<>();
+
+	// #line source string numbers, 0 is reserved for sources not loaded through this preprocessor
+	private final HashMap<String, Integer> fileNumbers = new HashMap<>();
+	private final ArrayList<String> fileNames = new ArrayList<>();
+
+	public ShaderPreprocessor(SourceLoader loader) {
+		this.loader = loader;
+		fileNames.add(null);
+	}
+
+	/**
+	 * Loads files as resources of clazz, prefix is prepended to every path.
+	 */
+	public ShaderPreprocessor(Class<?> clazz, String prefix) {
+		this(path -> {
+			// resolve ".." against the prefix's own directories, as a plain prefix + path lookup did
+			String resource = normalize(prefix + path);
+			if(prefix.startsWith("/"))
+				resource = "/" + resource;
+
+			InputStream is = clazz.getResourceAsStream(resource);
+			return is == null ? null : Utils.readFully(is);
+		});
+	}
+
+	/**
+	 * @return The path of the file with the given #line source string number, or null if there is none.
+	 */
+	public String getFileName(int fileNumber) {
+		return fileNumber > 0 && fileNumber < fileNames.size() ? fileNames.get(fileNumber) : null;
+	}
+
+	public void clearCache() {
+		files.clear();
+	}
+
+	/**
+	 * Expands the file at path. Each feature becomes a #define right after the #version line: either a bare NAME, or
+	 * NAME=VALUE. Features are sorted first so that the same set always expands to the same source. A file without
+	 * features or #include directives is returned exactly as loaded, keeping its own line numbers.
+	 */
+	public String process(String path, Collection<String> features) {
+		path = normalize(path);
+
+		if(features.isEmpty()) {
+			String source = load(path);
+			if(!hasInclude(source))
+				return source;
+		}
+		
+		StringBuilder defines = new StringBuilder();
+		for(String feature : new TreeSet<>(features)) {
+			int equals = feature.indexOf('=');
+			String name = equals == -1 ? feature : feature.substring(0, equals);
+
+			if(!isIdentifier(name))
+				throw new IllegalArgumentException("Invalid feature name: '" + name + "'");
+
+			defines.append("#define ").append(name);
+			if(equals != -1)
+				defines.append(' ').append(feature.substring(equals + 1));
+			defines.append('\n');
+		}
+
+		StringBuilder out = new StringBuilder();
+		expand(path, defines.toString(), out, new HashSet<>(), new ArrayList<>());
+		return out.toString();
+	}
+
+	private void expand(String path, String defines, StringBuilder out, HashSet<String> included, ArrayList<String> stack) {
+		String source = load(path);
+		int fileNumber = getFileNumber(path);
+
+		included.add(path);
+		stack.add(path);
+
+		String[] lines = source.split("\r?\n", -1);
+
+		// nothing may come before the #version line, so the defines go right after it wherever it is, even behind a
+		// block comment, or first if there is none
+		boolean hasVersion = false;
+		for(String line : lines) {
+			if(line.trim().startsWith("#version")) {
+				hasVersion = true;
+				break;
+			}
+		}
+
+		boolean isRoot = defines != null;
+		if(isRoot && !hasVersion)
+			out.append(defines).append("#line 1 ").append(fileNumber).append('\n');
+
+		for(int a = 0; a < lines.length; a++) {
+			String line = lines[a];
+			String trimmed = line.trim();
+
+			// a trailing newline leaves an empty last element
+			if(a == lines.length - 1 && line.isEmpty())
+				break;
+
+			if(trimmed.startsWith("#version")) {
+				if(!isRoot)
+					throw new IllegalArgumentException("Included file '" + path + "' cannot have a #version.");
+
+				out.append(line).append('\n');
+				if(hasVersion) {
+					out.append(defines).append("#line ").append(a + 2).append(' ').append(fileNumber).append('\n');
+					hasVersion = false;
+				}
+				continue;
+			}
+
+			if(trimmed.startsWith("#include")) {
+				String include = resolve(path, parseInclude(path, a + 1, trimmed.substring(8).trim()));
+
+				if(stack.contains(include))
+					throw new IllegalArgumentException("Circular include of '" + include + "' in '" + path + "'.");
+
+				if(included.contains(include)) {
+					// keep the line count unchanged
+					out.append('\n');
+					continue;
+				}
+
+				out.append("#line 1 ").append(getFileNumber(include)).append('\n');
+				expand(include, null, out, included, stack);
+				out.append("#line ").append(a + 2).append(' ').append(fileNumber).append('\n');
+				continue;
+			}
+
+			out.append(line).append('\n');
+		}
+
+		stack.remove(stack.size() - 1);
+	}
+
+	private String load(String path) {
+		String source = files.get(path);
+		if(source == null) {
+			source = loader.load(path);
+			if(source == null)
+				throw new IllegalArgumentException("Shader file '" + path + "' cannot be found.");
+
+			files.put(path, source);
+		}
+
+		return source;
+	}
+
+	private int getFileNumber(String path) {
+		Integer number = fileNumbers.get(path);
+		if(number == null) {
+			number = fileNames.size();
+			fileNames.add(path);
+			fileNumbers.put(path, number);
+		}
+
+		return number;
+	}
+
+	private static boolean hasInclude(String source) {
+		for(String line : source.split("\r?\n"))
+			if(line.trim().startsWith("#include"))
+				return true;
+
+		return false;
+	}
+
+	private static String parseInclude(String path, int lineNumber, String argument) {
+		if(argument.length() >= 2) {
+			char open = argument.charAt(0);
+			char close = argument.charAt(argument.length() - 1);
+
+			if((open == '"' && close == '"') || (open == '<' && close == '>'))
+				return argument.substring(1, argument.length() - 1);
+		}
+
+		throw new IllegalArgumentException("Invalid #include in '" + path + "' at line " + lineNumber + ".");
+	}
+
+	private static String resolve(String includer, String include) {
+		if(include.startsWith("/"))
+			return normalize(include.substring(1));
+
+		int slash = includer.lastIndexOf('/');
+		return normalize(slash == -1 ? include : includer.substring(0, slash + 1) + include);
+	}
+
+	/**
+	 * Removes "." segments and ".." segments that follow a directory so that every file has exactly one name. Leading
+	 * ".." segments that climb above the root are kept.
+	 */
+	private static String normalize(String path) {
+		ArrayList<String> segments = new ArrayList<>();
+		for(String segment : path.split("/")) {
+			if(segment.isEmpty() || segment.equals("."))
+				continue;
+
+			if(segment.equals("..") && !segments.isEmpty() && !segments.get(segments.size() - 1).equals(".."))
+				segments.remove(segments.size() - 1);
+			else
+				segments.add(segment);
+		}
+
+		return String.join("/", segments);
+	}
+
+	private static boolean isIdentifier(String name) {
+		if(name.isEmpty() || !Character.isJavaIdentifierStart(name.charAt(0)) || name.charAt(0) == '$')
+			return false;
+
+		for(int a = 1; a < name.length(); a++) {
+			char c = name.charAt(a);
+			if(!Character.isLetterOrDigit(c) && c != '_')
+				return false;
+		}
+
+		return true;
+	}
+}
@@ -5,22 +5,82 @@ import static org.lwjgl.opengl.GL20.*;
 import static org.lwjgl.opengl.GL30.*;
 import static org.lwjgl.opengl.GL31.*;
 import static org.lwjgl.opengl.GL32.*;
+import static org.lwjgl.opengl.GL41.*;
 import static org.lwjgl.opengl.GL43.*;
 
+import java.nio.IntBuffer;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.TreeMap;
+
+import org.lwjgl.BufferUtils;
+import org.lwjgl.opengl.GLContext;
+
+import com.ra4king.opengl.util.math.Matrix3;
+import com.ra4king.opengl.util.math.Matrix4;
+import com.ra4king.opengl.util.math.Vector2;
+import com.ra4king.opengl.util.math.Vector3;
+import com.ra4king.opengl.util.math.Vector4;
+import com.ra4king.opengl.util.render.GLState;
+import com.ra4king.opengl.util.render.GLStats;
+import com.ra4king.opengl.util.render.GLStats.Counter;
 
 /**
  * @author Roi Atalla
  */
 public class ShaderProgram {
-	private HashMap<String, Integer> uniformMap = new HashMap<>();
+	private static int nextId;
+	
+	private static ProgramBinaryCache binaryCache;
+	
+	// from KHR_parallel_shader_compile, which LWJGL 2 does not know about
+	private static final int GL_COMPLETION_STATUS_KHR = 0x91B1;
+	
+	// without the extension any status query blocks, so pending programs are only checked after this long
+	private static final long DEFERRED_POLL_DELAY = 16000000L;
+	
+	private static Boolean hasParallelCompile;
+	
+	private final int id = nextId++;
+	
 	private int program;
 	
+	// set while an asynchronously compiled program has not been checked yet
+	private int[] pendingShaders, pendingTypes;
+	private String pendingCacheKey;
+	private long submitTime;
+	private RuntimeException failure;
+	
+	// filled in by reflect() right after linking, block members included
+	private UniformInfo[] uniforms;
+	private BlockInfo[] blocks;
+	private AttributeInfo[] attributes;
+	
+	private HashMap<String, UniformInfo> uniformMap = new HashMap<>();
+	private HashMap<String, BlockInfo> blockMap = new HashMap<>();
+	private HashMap<String, AttributeInfo> attributeMap = new HashMap<>();
+	
+	// locations of names that are not reported as active uniforms, like individual array elements
+	private HashMap<String, Integer> extraLocations = new HashMap<>();
+	
+	// shadow copies of the values last set through the setUniform methods, indexed by location, as raw int bits
+	private int[][] uniformValues = new int[0][];
+	private final int[] newValue = new int[16];
+	
 	public ShaderProgram(String computeShader) {
-		int cs = compileShader(computeShader, GL_COMPUTE_SHADER);
-		program = compileProgram(new int[] { cs }, null);
-		glDeleteShader(cs);
+		String key = getCacheKey("compute", computeShader);
+		program = loadBinary(key);
+		
+		if(program == 0) {
+			int cs = compileShader(computeShader, GL_COMPUTE_SHADER);
+			program = compileProgram(new int[] { cs }, null, key);
+			glDeleteShader(cs);
+		}
+		
+		reflect();
 	}
 	
 	public ShaderProgram(String vertexShader, String fragmentShader) {
@@ -36,20 +96,27 @@ public class ShaderProgram {
 	}
 	
 	public ShaderProgram(String vertexShader, String geometryShader, String fragmentShader, Map<Integer, String> attributes) {
-		int vs = compileShader(vertexShader, GL_VERTEX_SHADER);
-		int gs = compileShader(geometryShader, GL_GEOMETRY_SHADER);
-		int fs = compileShader(fragmentShader, GL_FRAGMENT_SHADER);
+		String key = getCacheKey("graphics", vertexShader, geometryShader, fragmentShader, toString(attributes));
+		program = loadBinary(key);
 		
-		program = compileProgram(new int[] { vs, gs, fs }, (int program) -> {
-			if(attributes != null)
-				for(int i : attributes.keySet())
-					glBindAttribLocation(program, i, attributes.get(i));
-		});
+		if(program == 0) {
+			int vs = compileShader(vertexShader, GL_VERTEX_SHADER);
+			int gs = compileShader(geometryShader, GL_GEOMETRY_SHADER);
+			int fs = compileShader(fragmentShader, GL_FRAGMENT_SHADER);
+			
+			program = compileProgram(new int[] { vs, gs, fs }, (int program) -> {
+				if(attributes != null)
+					for(int i : attributes.keySet())
+						glBindAttribLocation(program, i, attributes.get(i));
+			}, key);
+			
+			glDeleteShader(vs);
+			if(gs != -1)
+				glDeleteShader(gs);
+			glDeleteShader(fs);
+		}
 		
-		glDeleteShader(vs);
-		if(gs != -1)
-			glDeleteShader(gs);
-		glDeleteShader(fs);
+		reflect();
 	}
 	
 	public ShaderProgram(String vertexShader, String[] transformFeedbackVaryings, boolean interleaved) {
@@ -65,28 +132,201 @@ public class ShaderProgram {
 	}
 	
 	public ShaderProgram(String vertexShader, String geometryShader, Map<Integer, String> attributes, String[] transformFeedbackVaryings, boolean interleaved) {
-		int vs = compileShader(vertexShader, GL_VERTEX_SHADER);
-		int gs = compileShader(geometryShader, GL_GEOMETRY_SHADER);
+		String varyings = transformFeedbackVaryings == null ? null : String.join("\0", transformFeedbackVaryings);
+		String key = getCacheKey("feedback", vertexShader, geometryShader, toString(attributes), varyings, String.valueOf(interleaved));
+		program = loadBinary(key);
+		
+		if(program == 0) {
+			int vs = compileShader(vertexShader, GL_VERTEX_SHADER);
+			int gs = compileShader(geometryShader, GL_GEOMETRY_SHADER);
+			
+			program = compileProgram(new int[] { vs, gs }, (int program) -> {
+				if(attributes != null)
+					for(int i : attributes.keySet())
+						glBindAttribLocation(program, i, attributes.get(i));
+				
+				if(transformFeedbackVaryings != null)
+					glTransformFeedbackVaryings(program, transformFeedbackVaryings, interleaved ? GL_INTERLEAVED_ATTRIBS : GL_SEPARATE_ATTRIBS);
+			}, key);
+			
+			glDeleteShader(vs);
+			if(gs != -1)
+				glDeleteShader(gs);
+		}
+		
+		reflect();
+	}
+	
+	/**
+	 * Submits the shaders for compilation and the program for linking without waiting on the driver. Use isReady() to
+	 * poll for completion, any other use of the program blocks until it is done.
+	 * 
+	 * @param geometryShader May be null.
+	 * @param attributes May be null.
+	 */
+	public static ShaderProgram createAsync(String vertexShader, String geometryShader, String fragmentShader, Map<Integer, String> attributes) {
+		String key = getCacheKey("graphics", vertexShader, geometryShader, fragmentShader, toString(attributes));
 		
-		program = compileProgram(new int[] { vs, gs }, (int program) -> {
-			if(attributes != null)
-				for(int i : attributes.keySet())
-					glBindAttribLocation(program, i, attributes.get(i));
+		return new ShaderProgram(new String[] { vertexShader, geometryShader, fragmentShader },
+		                         new int[] { GL_VERTEX_SHADER, GL_GEOMETRY_SHADER, GL_FRAGMENT_SHADER },
+		                         (int program) -> {
+			                         if(attributes != null)
+				                         for(int i : attributes.keySet())
+					                         glBindAttribLocation(program, i, attributes.get(i));
+		                         }, key);
+	}
+	
+	public static ShaderProgram createAsync(String computeShader) {
+		String key = getCacheKey("compute", computeShader);
+		
+		return new ShaderProgram(new String[] { computeShader }, new int[] { GL_COMPUTE_SHADER }, null, key);
+	}
+	
+	private ShaderProgram(String[] sources, int[] types, PreLinkOperations preLink, String cacheKey) {
+		program = loadBinary(cacheKey);
+		
+		if(program != 0) {
+			reflect();
+			return;
+		}
+		
+		int[] shaders = new int[sources.length];
+		for(int a = 0; a < shaders.length; a++)
+			shaders[a] = submitShader(sources[a], types[a]);
+		
+		program = submitProgram(shaders, preLink, cacheKey);
+		
+		pendingShaders = shaders;
+		pendingTypes = types;
+		pendingCacheKey = cacheKey;
+		submitTime = System.nanoTime();
+	}
+	
+	/**
+	 * Never blocks. With KHR_parallel_shader_compile the driver is asked whether compiling and linking completed,
+	 * otherwise the program is checked once a frame's worth of time passed since it was submitted.
+	 * 
+	 * Throws the compile or link error once the program is done, if there was one.
+	 */
+	public boolean isReady() {
+		if(failure != null)
+			throw failure;
+		
+		if(pendingShaders == null)
+			return true;
+		
+		if(hasParallelCompile()) {
+			if(glGetProgrami(program, GL_COMPLETION_STATUS_KHR) == GL_FALSE)
+				return false;
+		}
+		else if(System.nanoTime() - submitTime < DEFERRED_POLL_DELAY)
+			return false;
+		
+		finish();
+		return true;
+	}
+	
+	/**
+	 * Blocks until an asynchronously compiled program is linked. Throws the compile or link error if there was one.
+	 */
+	public void finish() {
+		if(failure != null)
+			throw failure;
+		
+		if(pendingShaders == null)
+			return;
+		
+		int[] shaders = pendingShaders;
+		pendingShaders = null;
+		
+		try {
+			for(int a = 0; a < shaders.length; a++)
+				if(shaders[a] != -1)
+					checkShader(shaders[a], pendingTypes[a]);
+			
+			checkProgram(program, shaders, pendingCacheKey);
+		} catch(RuntimeException exc) {
+			glDeleteProgram(program);
+			program = 0;
+			
+			failure = exc;
+			throw exc;
+		} finally {
+			for(int shader : shaders)
+				if(shader != -1)
+					glDeleteShader(shader);
+		}
+		
+		reflect();
+	}
+	
+	private static boolean hasParallelCompile() {
+		if(hasParallelCompile == null) {
+			boolean found = false;
+			
+			int count = glGetInteger(GL_NUM_EXTENSIONS);
+			for(int a = 0; a < count && !found; a++) {
+				String extension = glGetStringi(GL_EXTENSIONS, a);
+				found = extension.equals("GL_KHR_parallel_shader_compile") || extension.equals("GL_ARB_parallel_shader_compile");
+			}
 			
-			if(transformFeedbackVaryings != null)
-				glTransformFeedbackVaryings(program, transformFeedbackVaryings, interleaved ? GL_INTERLEAVED_ATTRIBS : GL_SEPARATE_ATTRIBS);
-		});
+			hasParallelCompile = found;
+		}
+		
+		return hasParallelCompile;
+	}
+	
+	/**
+	 * Programs created after this call are restored from cache when possible, and stored into it when built from
+	 * source. Pass null to always build from source.
+	 */
+	public static void setBinaryCache(ProgramBinaryCache cache) {
+		binaryCache = cache;
+	}
+	
+	public static ProgramBinaryCache getBinaryCache() {
+		return binaryCache;
+	}
+	
+	/**
+	 * @return The cache key of a program built from parts, or null if there is no cache.
+	 */
+	private static String getCacheKey(String ... parts) {
+		return binaryCache == null ? null : binaryCache.getKey(parts);
+	}
+	
+	private static int loadBinary(String key) {
+		if(key == null)
+			return 0;
+		
+		int program = binaryCache.load(key);
+		if(program != 0)
+			System.out.println("Loading program binary successful.");
 		
-		glDeleteShader(vs);
-		if(gs != -1)
-			glDeleteShader(gs);
+		return program;
+	}
+	
+	/**
+	 * Attribute bindings sorted by location, so that the cache key does not depend on the Map's iteration order.
+	 */
+	private static String toString(Map<Integer, String> attributes) {
+		return attributes == null ? null : new TreeMap<>(attributes).toString();
 	}
 	
 	private interface PreLinkOperations {
 		void preLink(int program);
 	}
 	
-	private static int compileProgram(int[] shaders, PreLinkOperations preLink) {
+	/**
+	 * @param cacheKey If not null, the linked program is stored into the binary cache under this key.
+	 */
+	private static int compileProgram(int[] shaders, PreLinkOperations preLink, String cacheKey) {
+		int program = submitProgram(shaders, preLink, cacheKey);
+		checkProgram(program, shaders, cacheKey);
+		return program;
+	}
+	
+	private static int submitProgram(int[] shaders, PreLinkOperations preLink, String cacheKey) {
 		int program = glCreateProgram();
 		
 		for(int s : shaders)
@@ -96,8 +336,18 @@ public class ShaderProgram {
 		if(preLink != null)
 			preLink.preLink(program);
 		
+		if(cacheKey != null)
+			glProgramParameteri(program, GL_PROGRAM_BINARY_RETRIEVABLE_HINT, GL_TRUE);
+		
 		glLinkProgram(program);
 		
+		return program;
+	}
+	
+	/**
+	 * Reading the link status waits for the driver to finish linking.
+	 */
+	private static void checkProgram(int program, int[] shaders, String cacheKey) {
 		String infoLog = glGetProgramInfoLog(program, glGetProgrami(program, GL_INFO_LOG_LENGTH));
 		
 		if(glGetProgrami(program, GL_LINK_STATUS) == GL_FALSE)
@@ -114,10 +364,19 @@ public class ShaderProgram {
 			if(s != -1)
 				glDetachShader(program, s);
 		
-		return program;
+		if(cacheKey != null)
+			binaryCache.store(cacheKey, program);
 	}
 	
 	private static int compileShader(String source, int type) {
+		int shader = submitShader(source, type);
+		if(shader != -1)
+			checkShader(shader, type);
+		
+		return shader;
+	}
+	
+	private static int submitShader(String source, int type) {
 		if(source == null)
 			return -1;
 		
@@ -126,6 +385,13 @@ public class ShaderProgram {
 		
 		glCompileShader(shader);
 		
+		return shader;
+	}
+	
+	/**
+	 * Reading the compile status waits for the driver to finish compiling.
+	 */
+	private static void checkShader(int shader, int type) {
 		String infoLog = glGetShaderInfoLog(shader, glGetShaderi(shader, GL_INFO_LOG_LENGTH));
 		
 		if(glGetShaderi(shader, GL_COMPILE_STATUS) == GL_FALSE)
@@ -137,8 +403,6 @@ public class ShaderProgram {
 			else
 				System.out.println();
 		}
-		
-		return shader;
 	}
 	
 	private static String getName(int shaderType) {
@@ -158,39 +422,473 @@ public class ShaderProgram {
 		return program;
 	}
 	
+	/**
+	 * @return A small id unique to this ShaderProgram, assigned in creation order. Meant for indexing dense per-program
+	 *         arrays.
+	 */
+	public int getId() {
+		return id;
+	}
+	
+	/**
+	 * Queries every active uniform, uniform block and attribute once, so that later lookups never reach GL.
+	 */
+	private void reflect() {
+		IntBuffer sizeType = BufferUtils.createIntBuffer(2);
+		
+		boolean hasBlocks = GLContext.getCapabilities().OpenGL31;
+		
+		uniforms = new UniformInfo[glGetProgrami(program, GL_ACTIVE_UNIFORMS)];
+		int maxLength = glGetProgrami(program, GL_ACTIVE_UNIFORM_MAX_LENGTH);
+		for(int a = 0; a < uniforms.length; a++) {
+			String name = glGetActiveUniform(program, a, maxLength, sizeType);
+			int location = glGetUniformLocation(program, name);
+			
+			int blockIndex = -1, offset = -1, arrayStride = 0, matrixStride = 0;
+			if(hasBlocks) {
+				blockIndex = glGetActiveUniformsi(program, a, GL_UNIFORM_BLOCK_INDEX);
+				offset = glGetActiveUniformsi(program, a, GL_UNIFORM_OFFSET);
+				arrayStride = glGetActiveUniformsi(program, a, GL_UNIFORM_ARRAY_STRIDE);
+				matrixStride = glGetActiveUniformsi(program, a, GL_UNIFORM_MATRIX_STRIDE);
+			}
+			
+			UniformInfo info = new UniformInfo(name, location, sizeType.get(1), sizeType.get(0), blockIndex, offset, arrayStride, matrixStride);
+			uniforms[a] = info;
+			
+			uniformMap.put(name, info);
+			// arrays are reported as "name[0]", they can also be looked up as just "name"
+			if(name.endsWith("[0]"))
+				uniformMap.put(name.substring(0, name.length() - 3), info);
+		}
+		
+		blocks = new BlockInfo[hasBlocks ? glGetProgrami(program, GL_ACTIVE_UNIFORM_BLOCKS) : 0];
+		for(int a = 0; a < blocks.length; a++) {
+			int length = glGetActiveUniformBlocki(program, a, GL_UNIFORM_BLOCK_NAME_LENGTH);
+			String name = glGetActiveUniformBlockName(program, a, length);
+			
+			BlockInfo info = new BlockInfo(name, a, glGetActiveUniformBlocki(program, a, GL_UNIFORM_BLOCK_DATA_SIZE));
+			blocks[a] = info;
+			blockMap.put(name, info);
+		}
+		
+		attributes = new AttributeInfo[glGetProgrami(program, GL_ACTIVE_ATTRIBUTES)];
+		maxLength = glGetProgrami(program, GL_ACTIVE_ATTRIBUTE_MAX_LENGTH);
+		for(int a = 0; a < attributes.length; a++) {
+			String name = glGetActiveAttrib(program, a, maxLength, sizeType);
+			
+			AttributeInfo info = new AttributeInfo(name, glGetAttribLocation(program, name), sizeType.get(1), sizeType.get(0));
+			attributes[a] = info;
+			attributeMap.put(name, info);
+		}
+	}
+	
+	public List<UniformInfo> getUniforms() {
+		finish();
+		
+		return Collections.unmodifiableList(Arrays.asList(uniforms));
+	}
+	
+	public List<BlockInfo> getUniformBlocks() {
+		finish();
+		
+		return Collections.unmodifiableList(Arrays.asList(blocks));
+	}
+	
+	public List<AttributeInfo> getAttributes() {
+		finish();
+		
+		return Collections.unmodifiableList(Arrays.asList(attributes));
+	}
+	
+	/**
+	 * @return The reflected active uniform, or null if there is none with this name.
+	 */
+	public UniformInfo getUniform(String name) {
+		finish();
+		
+		return uniformMap.get(name);
+	}
+	
+	/**
+	 * @return The reflected active uniform block, or null if there is none with this name.
+	 */
+	public BlockInfo getUniformBlock(String name) {
+		finish();
+		
+		return blockMap.get(name);
+	}
+	
+	/**
+	 * @return The reflected active attribute, or null if there is none with this name.
+	 */
+	public AttributeInfo getAttribute(String name) {
+		finish();
+		
+		return attributeMap.get(name);
+	}
+	
 	public int getUniformLocation(String name) {
-		if(uniformMap.containsKey(name))
-			return uniformMap.get(name);
+		finish();
+		
+		UniformInfo info = uniformMap.get(name);
+		if(info != null && info.location != -1)
+			return info.location;
+		
+		Integer extra = extraLocations.get(name);
+		if(extra != null)
+			return extra;
 		
 		int location = glGetUniformLocation(program, name);
 		if(location == -1)
 			throw new IllegalArgumentException("Uniform '" + name + "' does not exist.");
 		
-		uniformMap.put(name, location);
+		extraLocations.put(name, location);
 		return location;
 	}
 	
 	public int getUniformBlockIndex(String name) {
-		if(uniformMap.containsKey(name))
-			return uniformMap.get(name);
+		finish();
 		
-		int index = glGetUniformBlockIndex(program, name);
-		if(index == -1)
+		BlockInfo info = blockMap.get(name);
+		if(info == null)
 			throw new IllegalArgumentException("Uniform block '" + name + "' does not exist.");
 		
-		uniformMap.put(name, index);
-		return index;
+		return info.index;
+	}
+	
+	public int getAttributeLocation(String name) {
+		finish();
+		
+		AttributeInfo info = attributeMap.get(name);
+		if(info == null)
+			throw new IllegalArgumentException("Attribute '" + name + "' does not exist.");
+		
+		return info.location;
+	}
+	
+	/**
+	 * Resolves a uniform once into a handle that sets it without any name lookups. The GL type of the uniform must
+	 * match type: Float, Vector2, Vector3, Vector4, Matrix3, Matrix4, or Integer for ints, bools and samplers.
+	 */
+	public <T> UniformHandle<T> getUniformHandle(String name, Class<T> type) {
+		finish();
+		
+		UniformInfo info = uniformMap.get(name);
+		if(info == null || info.location == -1)
+			throw new IllegalArgumentException("Uniform '" + name + "' does not exist or is inside a uniform block.");
+		
+		if(getJavaType(info.type) != type)
+			throw new IllegalArgumentException("Uniform '" + name + "' cannot be set from " + type.getSimpleName() + ".");
+		
+		return new UniformHandle<>(this, info);
+	}
+	
+	private static Class<?> getJavaType(int glType) {
+		switch(glType) {
+			case GL_FLOAT:
+				return Float.class;
+			case GL_FLOAT_VEC2:
+				return Vector2.class;
+			case GL_FLOAT_VEC3:
+				return Vector3.class;
+			case GL_FLOAT_VEC4:
+				return Vector4.class;
+			case GL_FLOAT_MAT3:
+				return Matrix3.class;
+			case GL_FLOAT_MAT4:
+				return Matrix4.class;
+			case GL_INT:
+			case GL_BOOL:
+			case GL_SAMPLER_1D:
+			case GL_SAMPLER_2D:
+			case GL_SAMPLER_3D:
+			case GL_SAMPLER_CUBE:
+			case GL_SAMPLER_1D_SHADOW:
+			case GL_SAMPLER_2D_SHADOW:
+			case GL_SAMPLER_1D_ARRAY:
+			case GL_SAMPLER_2D_ARRAY:
+			case GL_SAMPLER_2D_ARRAY_SHADOW:
+			case GL_SAMPLER_CUBE_SHADOW:
+			case GL_INT_SAMPLER_2D:
+			case GL_UNSIGNED_INT_SAMPLER_2D:
+			case GL_SAMPLER_2D_RECT:
+			case GL_SAMPLER_BUFFER:
+			case GL_SAMPLER_2D_MULTISAMPLE:
+				return Integer.class;
+			default:
+				return null;
+		}
+	}
+	
+	/**
+	 * The setUniform methods skip the GL call when the uniform already holds the value. This program must be in use.
+	 * Uniforms set any other way must be followed by invalidateUniforms().
+	 */
+	public void setUniform1i(int location, int value) {
+		newValue[0] = value;
+		
+		if(updateShadow(location, 1)) {
+			glUniform1i(location, value);
+			GLStats.increment(Counter.UNIFORM_UPDATES);
+		}
+	}
+	
+	public void setUniform1f(int location, float value) {
+		newValue[0] = Float.floatToRawIntBits(value);
+		
+		if(updateShadow(location, 1)) {
+			glUniform1f(location, value);
+			GLStats.increment(Counter.UNIFORM_UPDATES);
+		}
+	}
+	
+	public void setUniform2f(int location, float x, float y) {
+		newValue[0] = Float.floatToRawIntBits(x);
+		newValue[1] = Float.floatToRawIntBits(y);
+		
+		if(updateShadow(location, 2)) {
+			glUniform2f(location, x, y);
+			GLStats.increment(Counter.UNIFORM_UPDATES);
+		}
+	}
+	
+	public void setUniform3f(int location, float x, float y, float z) {
+		newValue[0] = Float.floatToRawIntBits(x);
+		newValue[1] = Float.floatToRawIntBits(y);
+		newValue[2] = Float.floatToRawIntBits(z);
+		
+		if(updateShadow(location, 3)) {
+			glUniform3f(location, x, y, z);
+			GLStats.increment(Counter.UNIFORM_UPDATES);
+		}
+	}
+	
+	public void setUniform4f(int location, float x, float y, float z, float w) {
+		newValue[0] = Float.floatToRawIntBits(x);
+		newValue[1] = Float.floatToRawIntBits(y);
+		newValue[2] = Float.floatToRawIntBits(z);
+		newValue[3] = Float.floatToRawIntBits(w);
+		
+		if(updateShadow(location, 4)) {
+			glUniform4f(location, x, y, z, w);
+			GLStats.increment(Counter.UNIFORM_UPDATES);
+		}
+	}
+	
+	public void setUniformMatrix3(int location, Matrix3 matrix) {
+		for(int a = 0; a < 9; a++)
+			newValue[a] = Float.floatToRawIntBits(matrix.get(a));
+		
+		if(updateShadow(location, 9)) {
+			glUniformMatrix3(location, false, matrix.toBuffer());
+			GLStats.increment(Counter.UNIFORM_UPDATES);
+		}
+	}
+	
+	public void setUniformMatrix4(int location, Matrix4 matrix) {
+		for(int a = 0; a < 16; a++)
+			newValue[a] = Float.floatToRawIntBits(matrix.get(a));
+		
+		if(updateShadow(location, 16)) {
+			glUniformMatrix4(location, false, matrix.toBuffer());
+			GLStats.increment(Counter.UNIFORM_UPDATES);
+		}
+	}
+	
+	/**
+	 * Forgets all shadowed uniform values, forcing the next set of each uniform to be issued.
+	 */
+	public void invalidateUniforms() {
+		Arrays.fill(uniformValues, null);
+	}
+	
+	/**
+	 * Compares the first count ints of newValue against the shadow copy at location and stores them if they differ.
+	 * 
+	 * @return True if the uniform must be set.
+	 */
+	private boolean updateShadow(int location, int count) {
+		// GL silently ignores location -1
+		if(location < 0)
+			return false;
+		
+		if(location >= uniformValues.length)
+			uniformValues = Arrays.copyOf(uniformValues, Math.max(location + 1, uniformValues.length * 2));
+		
+		int[] shadow = uniformValues[location];
+		if(shadow == null || shadow.length != count)
+			shadow = uniformValues[location] = new int[count];
+		else {
+			boolean isSame = true;
+			for(int a = 0; a < count && isSame; a++)
+				isSame = shadow[a] == newValue[a];
+			
+			if(isSame)
+				return false;
+		}
+		
+		System.arraycopy(newValue, 0, shadow, 0, count);
+		return true;
 	}
 	
 	public void begin() {
-		glUseProgram(program);
+		if(pendingShaders != null)
+			finish();
+		
+		GLState.useProgram(program);
 	}
 	
 	public void end() {
-		glUseProgram(0);
+		GLState.useProgram(0);
 	}
 	
 	public void destroy() {
+		if(pendingShaders != null) {
+			for(int shader : pendingShaders)
+				if(shader != -1)
+					glDeleteShader(shader);
+			
+			pendingShaders = null;
+		}
+		
 		glDeleteProgram(program);
 	}
+	
+	public static class UniformInfo {
+		public final String name;
+		/**
+		 * -1 for members of uniform blocks.
+		 */
+		public final int location;
+		public final int type;
+		/**
+		 * The array length, 1 for non-arrays.
+		 */
+		public final int size;
+		
+		/**
+		 * The index of the uniform block this is a member of, or -1. The offset and strides are in bytes and only
+		 * meaningful for block members.
+		 */
+		public final int blockIndex;
+		public final int offset;
+		public final int arrayStride;
+		public final int matrixStride;
+		
+		private UniformInfo(String name, int location, int type, int size, int blockIndex, int offset, int arrayStride, int matrixStride) {
+			this.name = name;
+			this.location = location;
+			this.type = type;
+			this.size = size;
+			this.blockIndex = blockIndex;
+			this.offset = offset;
+			this.arrayStride = arrayStride;
+			this.matrixStride = matrixStride;
+		}
+	}
+	
+	public static class BlockInfo {
+		public final String name;
+		public final int index;
+		public final int dataSize;
+		
+		private BlockInfo(String name, int index, int dataSize) {
+			this.name = name;
+			this.index = index;
+			this.dataSize = dataSize;
+		}
+	}
+	
+	public static class AttributeInfo {
+		public final String name;
+		public final int location;
+		public final int type;
+		public final int size;
+		
+		private AttributeInfo(String name, int location, int type, int size) {
+			this.name = name;
+			this.location = location;
+			this.type = type;
+			this.size = size;
+		}
+	}
+	
+	/**
+	 * A pre-resolved uniform of a known type. Setting it goes through the owning program's value shadowing, so the
+	 * program must be in use.
+	 */
+	public static class UniformHandle<T> {
+		private final ShaderProgram program;
+		private final UniformInfo info;
+		
+		private UniformHandle(ShaderProgram program, UniformInfo info) {
+			this.program = program;
+			this.info = info;
+		}
+		
+		public ShaderProgram getProgram() {
+			return program;
+		}
+		
+		public UniformInfo getInfo() {
+			return info;
+		}
+		
+		public int getLocation() {
+			return info.location;
+		}
+		
+		public void set(T value) {
+			int location = info.location;
+			
+			switch(info.type) {
+				case GL_FLOAT:
+					program.setUniform1f(location, (Float)value);
+					break;
+				case GL_FLOAT_VEC2: {
+					Vector2 v = (Vector2)value;
+					program.setUniform2f(location, v.x(), v.y());
+					break;
+				}
+				case GL_FLOAT_VEC3: {
+					Vector3 v = (Vector3)value;
+					program.setUniform3f(location, v.x(), v.y(), v.z());
+					break;
+				}
+				case GL_FLOAT_VEC4: {
+					Vector4 v = (Vector4)value;
+					program.setUniform4f(location, v.x(), v.y(), v.z(), v.w());
+					break;
+				}
+				case GL_FLOAT_MAT3:
+					program.setUniformMatrix3(location, (Matrix3)value);
+					break;
+				case GL_FLOAT_MAT4:
+					program.setUniformMatrix4(location, (Matrix4)value);
+					break;
+				default:
+					program.setUniform1i(location, (Integer)value);
+			}
+		}
+		
+		/**
+		 * Sets a float uniform without boxing.
+		 */
+		public void set(float value) {
+			if(info.type != GL_FLOAT)
+				throw new IllegalStateException("Uniform '" + info.name + "' is not a float.");
+			
+			program.setUniform1f(info.location, value);
+		}
+		
+		/**
+		 * Sets an int, bool or sampler uniform without boxing.
+		 */
+		public void set(int value) {
+			if(getJavaType(info.type) != Integer.class)
+				throw new IllegalStateException("Uniform '" + info.name + "' is not an int.");
+			
+			program.setUniform1i(info.location, value);
+		}
+	}
 }
@@ -0,0 +1,135 @@
+package com.ra4king.opengl.util;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.TreeSet;
+
+/**
+ * Builds shader program variants through a ShaderPreprocessor and compiles each unique expanded source only once.
+ *
+ * Variants are first looked up by their files, feature set and bindings. On a miss the sources are expanded and looked
+ * up again, so different feature sets that expand to the same sources share one program. Programs are only shared
+ * between requests with equal bindings, since uniform block bindings and sampler units belong to the program object.
+ *
+ * @author Roi Atalla
+ */
+public class ShaderVariantCache {
+	private final ShaderPreprocessor preprocessor;
+
+	private final HashMap<String, ShaderProgram> variants = new HashMap<>();
+	private final HashMap<String, ShaderProgram> programs = new HashMap<>();
+
+	private int requests, compiles;
+
+	public ShaderVariantCache(ShaderPreprocessor preprocessor) {
+		this.preprocessor = preprocessor;
+	}
+
+	public ShaderPreprocessor getPreprocessor() {
+		return preprocessor;
+	}
+
+	/**
+	 * @return The number of unique programs compiled.
+	 */
+	public int getCompileCount() {
+		return compiles;
+	}
+
+	/**
+	 * @return The number of get() and prewarm() calls.
+	 */
+	public int getRequestCount() {
+		return requests;
+	}
+
+	public ShaderProgram get(String vertexPath, String fragmentPath, String ... features) {
+		return get(vertexPath, null, fragmentPath, Arrays.asList(features));
+	}
+
+	/**
+	 * Returns the linked program for this variant, compiling it if needed. A variant that is still compiling after a
+	 * prewarm() is waited on.
+	 *
+	 * @param geometryPath May be null.
+	 */
+	public ShaderProgram get(String vertexPath, String geometryPath, String fragmentPath, Collection<String> features) {
+		return get(vertexPath, geometryPath, fragmentPath, features, null);
+	}
+
+	/**
+	 * @param bindings Describes the state the caller sets on the program once it is linked, like uniform block bindings
+	 *                 and sampler units. May be null.
+	 */
+	public ShaderProgram get(String vertexPath, String geometryPath, String fragmentPath, Collection<String> features, String bindings) {
+		ShaderProgram program = getOrCreate(vertexPath, geometryPath, fragmentPath, features, bindings, false);
+		program.finish();
+		return program;
+	}
+
+	public ShaderProgram prewarm(String vertexPath, String fragmentPath, String ... features) {
+		return prewarm(vertexPath, null, fragmentPath, Arrays.asList(features));
+	}
+
+	/**
+	 * Starts compiling this variant in the background if it is not cached yet. The returned program may still be
+	 * pending, see ShaderProgram.isReady().
+	 */
+	public ShaderProgram prewarm(String vertexPath, String geometryPath, String fragmentPath, Collection<String> features) {
+		return prewarm(vertexPath, geometryPath, fragmentPath, features, null);
+	}
+
+	public ShaderProgram prewarm(String vertexPath, String geometryPath, String fragmentPath, Collection<String> features, String bindings) {
+		return getOrCreate(vertexPath, geometryPath, fragmentPath, features, bindings, true);
+	}
+
+	private ShaderProgram getOrCreate(String vertexPath, String geometryPath, String fragmentPath, Collection<String> features, String bindings, boolean async) {
+		requests++;
+
+		String variantKey = vertexPath + "\0" + geometryPath + "\0" + fragmentPath + "\0" + bindings + "\0" + String.join("\0", new TreeSet<>(features));
+
+		ShaderProgram program = variants.get(variantKey);
+		if(program != null)
+			return program;
+
+		String vertexSource = preprocessor.process(vertexPath, features);
+		String geometrySource = geometryPath == null ? null : preprocessor.process(geometryPath, features);
+		String fragmentSource = preprocessor.process(fragmentPath, features);
+
+		String sourceKey = vertexSource + "\0" + geometrySource + "\0" + fragmentSource + "\0" + bindings;
+
+		program = programs.get(sourceKey);
+		if(program == null) {
+			if(async)
+				program = ShaderProgram.createAsync(vertexSource, geometrySource, fragmentSource, null);
+			else
+				program = new ShaderProgram(vertexSource, geometrySource, fragmentSource);
+
+			programs.put(sourceKey, program);
+			compiles++;
+		}
+
+		variants.put(variantKey, program);
+		return program;
+	}
+
+	/**
+	 * @return All unique programs compiled so far.
+	 */
+	public Collection<ShaderProgram> getPrograms() {
+		return Collections.unmodifiableCollection(programs.values());
+	}
+
+	/**
+	 * Deletes all programs and forgets all variants.
+	 */
+	public void destroy() {
+		for(ShaderProgram program : programs.values())
+			program.destroy();
+
+		programs.clear();
+		variants.clear();
+	}
+}
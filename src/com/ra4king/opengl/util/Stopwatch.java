@@ -3,10 +3,14 @@ package com.ra4king.opengl.util;
 import java.io.PrintStream;
 import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Deque;
 import java.util.HashMap;
 import java.util.List;
 
+import com.ra4king.opengl.util.render.GLStats;
+import com.ra4king.opengl.util.render.GLStats.Counter;
+
 /**
  * @author Roi Atalla
  */
@@ -42,6 +46,7 @@ public class Stopwatch {
 		
 		stackTimePeriods.push(timePeriod);
 		
+		GLStats.getTotals(timePeriod.startStats);
 		timePeriod.lastStartTime = System.nanoTime();
 	}
 	
@@ -58,6 +63,7 @@ public class Stopwatch {
 		
 		TimePeriod timePeriod = stackTimePeriods.getFirst();
 		timePeriod.totalTime += now - timePeriod.lastStartTime;
+		timePeriod.addStats();
 	}
 	
 	/**
@@ -70,6 +76,7 @@ public class Stopwatch {
 			throw new IllegalStateException("No timer started");
 		
 		TimePeriod timePeriod = stackTimePeriods.getFirst();
+		GLStats.getTotals(timePeriod.startStats);
 		timePeriod.lastStartTime = System.nanoTime();
 	}
 	
@@ -102,6 +109,7 @@ public class Stopwatch {
 		
 		TimePeriod timePeriod = stackTimePeriods.pop();
 		timePeriod.totalTime += now - timePeriod.lastStartTime;
+		timePeriod.addStats();
 		timePeriod.count++;
 		timePeriod.lastStartTime = 0;
 		
@@ -179,6 +187,9 @@ public class Stopwatch {
 		
 		timePeriod.lastCount = timePeriod.count;
 		timePeriod.count = 0;
+		
+		System.arraycopy(timePeriod.stats, 0, timePeriod.lastStats, 0, timePeriod.stats.length);
+		Arrays.fill(timePeriod.stats, 0);
 	}
 	
 	/**
@@ -217,6 +228,41 @@ public class Stopwatch {
 		return period.lastTotalTime / 1e6;
 	}
 	
+	/**
+	 * Gets a GL counter accumulated while the timer was running, including its children.
+	 * 
+	 * @param name The name of the time period
+	 * @param counter The counter
+	 * @return The counter's total over the same interval as getTotalTime.
+	 */
+	public static long getStat(String name, Counter counter) {
+		TimePeriod period = allTimePeriods.get(name);
+		
+		if(period == null) {
+			return 0;
+		}
+		
+		return period.lastStats[counter.ordinal()];
+	}
+	
+	/**
+	 * Gets a GL counter per run of the timer.
+	 * 
+	 * @param name The name of the time period
+	 * @param counter The counter
+	 * @return The counter's average value per frame.
+	 */
+	public static double getStatPerFrame(String name, Counter counter) {
+		TimePeriod period = allTimePeriods.get(name);
+		
+		// lastCount is -1 before the first reset and 0 if the timer did not run
+		if(period == null || period.lastCount <= 0) {
+			return 0.0;
+		}
+		
+		return (double)period.lastStats[counter.ordinal()] / period.lastCount;
+	}
+	
 	private static class TimePeriod {
 		String name;
 		
@@ -227,10 +273,19 @@ public class Stopwatch {
 		long lastTotalTime = -1;
 		int lastCount = -1;
 		
+		long[] startStats = new long[Counter.values.length];
+		long[] stats = new long[Counter.values.length];
+		long[] lastStats = new long[Counter.values.length];
+		
 		List<TimePeriod> children = new ArrayList<>();
 		
 		public TimePeriod(String name) {
 			this.name = name;
 		}
+		
+		void addStats() {
+			for(int a = 0; a < stats.length; a++)
+				stats[a] += GLStats.getTotal(Counter.values[a]) - startStats[a];
+		}
 	}
 }
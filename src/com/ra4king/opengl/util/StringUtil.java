@@ -8,11 +8,10 @@ import java.util.ArrayList;
 public class StringUtil {
 	public static String[] split(String input, char delim) {
 		ArrayList<String> parts = new ArrayList<>();
-		for(int index; (index = input.indexOf(delim)) != -1;) {
-			parts.add(input.substring(0, index));
-			input = input.substring(index + 1);
-		}
-		parts.add(input);
+		int start = 0;
+		for(int index; (index = input.indexOf(delim, start)) != -1; start = index + 1)
+			parts.add(input.substring(start, index));
+		parts.add(input.substring(start));
 		return parts.toArray(new String[parts.size()]);
 	}
 	
@@ -8,6 +8,10 @@ import java.nio.FloatBuffer;
 
 import org.lwjgl.BufferUtils;
 
+import com.ra4king.opengl.util.render.GLState;
+import com.ra4king.opengl.util.render.GLStats;
+import com.ra4king.opengl.util.render.GLStats.Counter;
+
 /**
  * @author Roi Atalla
  */
@@ -46,9 +50,10 @@ public class UniformBlockArray<T extends UniformBlockArray.UniformBlockObject> {
 	
 	public int createBufferObject() {
 		int bufferObject = glGenBuffers();
-		glBindBuffer(GL_UNIFORM_BUFFER, bufferObject);
+		GLState.bindBuffer(GL_UNIFORM_BUFFER, bufferObject);
 		glBufferData(GL_UNIFORM_BUFFER, (FloatBuffer)storage.position(maxPosition).flip(), GL_STATIC_DRAW);
-		glBindBuffer(GL_UNIFORM_BUFFER, 0);
+		GLStats.add(Counter.UPLOAD_BYTES, maxPosition * 4);
+		GLState.bindBuffer(GL_UNIFORM_BUFFER, 0);
 		
 		return bufferObject;
 	}
@@ -0,0 +1,137 @@
+package com.ra4king.opengl.util.buffers;
+
+import static org.lwjgl.opengl.GL11.*;
+import static org.lwjgl.opengl.GL31.*;
+
+import java.nio.ByteBuffer;
+
+import com.ra4king.opengl.util.render.GLState;
+
+/**
+ * An array of blocks with the same layout stored in a single buffer object that is allocated once and updated in
+ * place.
+ *
+ * Elements are written by binding them, filling them through the layout's fields, and unbinding them. Only the bound
+ * elements are marked dirty, and flush() uploads them together in as few calls as possible:
+ *
+ * <pre>
+ * ByteBuffer light = lights.bind(3);
+ * position.put(light, lightPosition);
+ * lights.unbind();
+ * lights.flush();
+ * </pre>
+ *
+ * @author Roi Atalla
+ */
+public class BlockArray {
+	private final BlockLayout layout;
+	private final int target;
+	private final int count, stride;
+	private final BufferSubData buffer;
+	
+	private int boundIndex = -1;
+	
+	/**
+	 * With GL_UNIFORM_BUFFER every element starts at a multiple of GL_UNIFORM_BUFFER_OFFSET_ALIGNMENT so that each one
+	 * can be bound on its own through bindRange(). With any other target elements are packed back to back, to be
+	 * indexed as a single array in the shader.
+	 */
+	public BlockArray(BlockLayout layout, int count, int target) {
+		if(count <= 0)
+			throw new IllegalArgumentException("Count must be positive.");
+		
+		this.layout = layout;
+		this.target = target;
+		this.count = count;
+		
+		if(target == GL_UNIFORM_BUFFER)
+			stride = BlockLayout.roundUp(layout.getSize(), glGetInteger(GL_UNIFORM_BUFFER_OFFSET_ALIGNMENT));
+		else
+			stride = layout.getSize();
+		
+		buffer = new BufferSubData(target, stride * count, false, false);
+		buffer.setAutoFlush(false);
+	}
+	
+	public BlockLayout getLayout() {
+		return layout;
+	}
+	
+	public int getTarget() {
+		return target;
+	}
+	
+	public int size() {
+		return count;
+	}
+	
+	/**
+	 * @return The distance in bytes between consecutive elements.
+	 */
+	public int getStride() {
+		return stride;
+	}
+	
+	public int getOffset(int index) {
+		if(index < 0 || index >= count)
+			throw new IllegalArgumentException("Index " + index + " is out of bounds.");
+		
+		return index * stride;
+	}
+	
+	public GLBuffer getBuffer() {
+		return buffer;
+	}
+	
+	/**
+	 * @return The total number of bytes uploaded since creation.
+	 */
+	public long getUploadedBytes() {
+		return buffer.getUploadedBytes();
+	}
+	
+	/**
+	 * @return The buffer positioned at the start of the element. Pass it to the layout's fields to write the element.
+	 */
+	public ByteBuffer bind(int index) {
+		ByteBuffer data = buffer.bind(getOffset(index), layout.getSize());
+		boundIndex = index;
+		return data;
+	}
+	
+	/**
+	 * Marks the bound element as dirty.
+	 */
+	public void unbind() {
+		if(boundIndex == -1)
+			throw new IllegalStateException("No element is bound.");
+		
+		buffer.unbind();
+		boundIndex = -1;
+	}
+	
+	/**
+	 * Uploads all elements unbound since the last flush.
+	 */
+	public void flush() {
+		buffer.flush();
+	}
+	
+	/**
+	 * Binds a single element to the indexed binding point.
+	 */
+	public void bindRange(int binding, int index) {
+		GLState.bindBufferRange(target, binding, buffer.getName(), getOffset(index), layout.getSize());
+	}
+	
+	/**
+	 * Binds the whole array to the indexed binding point.
+	 */
+	public void bindBase(int binding) {
+		GLState.bindBufferBase(target, binding, buffer.getName());
+	}
+	
+	public void destroy() {
+		GLState.deleteBuffer(buffer.getName());
+	}
+}
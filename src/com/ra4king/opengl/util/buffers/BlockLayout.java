@@ -0,0 +1,239 @@
+package com.ra4king.opengl.util.buffers;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+
+import com.ra4king.opengl.util.math.Matrix3;
+import com.ra4king.opengl.util.math.Matrix4;
+import com.ra4king.opengl.util.math.Vector2;
+import com.ra4king.opengl.util.math.Vector3;
+import com.ra4king.opengl.util.math.Vector4;
+
+/**
+ * Computes std140 or std430 offsets for a declared block and writes fields straight into a ByteBuffer.
+ *
+ * Fields are declared in the same order as in the shader. Writes are relative to the position of the buffer they are
+ * given, so the same Field can write into a client-side copy, a mapped range or one element of a BlockArray. Buffers
+ * must be in native byte order, as all LWJGL allocated buffers are.
+ *
+ * @author Roi Atalla
+ */
+public class BlockLayout {
+	public enum Packing {
+		STD140, STD430
+	}
+	
+	public enum Type {
+		FLOAT(4, 4), INT(4, 4), VEC2(8, 8), VEC3(12, 16), VEC4(16, 16), MAT3(48, 16), MAT4(64, 16);
+		
+		private final int size, alignment;
+		
+		Type(int size, int alignment) {
+			this.size = size;
+			this.alignment = alignment;
+		}
+		
+		public int getSize() {
+			return size;
+		}
+		
+		public int getAlignment() {
+			return alignment;
+		}
+	}
+	
+	private final Packing packing;
+	
+	private final ArrayList<Field> fields = new ArrayList<>();
+	private final HashMap<String, Field> fieldMap = new HashMap<>();
+	
+	private int end;
+	private int maxAlignment;
+	
+	public BlockLayout(Packing packing) {
+		this.packing = packing;
+		maxAlignment = packing == Packing.STD140 ? 16 : 4;
+	}
+	
+	public Packing getPacking() {
+		return packing;
+	}
+	
+	public Field add(String name, Type type) {
+		return add(name, type, 0);
+	}
+	
+	/**
+	 * @param arrayLength 0 declares a single value, anything above declares an array.
+	 */
+	public Field add(String name, Type type, int arrayLength) {
+		if(fieldMap.containsKey(name))
+			throw new IllegalArgumentException("Field '" + name + "' is already declared.");
+		if(arrayLength < 0)
+			throw new IllegalArgumentException("Invalid array length: " + arrayLength);
+		
+		int alignment = type.alignment;
+		int arrayStride = 0;
+		
+		if(arrayLength > 0) {
+			// std140 rounds array elements up to a vec4, std430 only to their own alignment
+			if(packing == Packing.STD140)
+				alignment = roundUp(alignment, 16);
+			
+			arrayStride = roundUp(type.size, alignment);
+		}
+		
+		int offset = roundUp(end, alignment);
+		end = offset + (arrayLength > 0 ? arrayStride * arrayLength : type.size);
+		maxAlignment = Math.max(maxAlignment, alignment);
+		
+		Field field = new Field(name, type, offset, arrayLength, arrayStride);
+		fields.add(field);
+		fieldMap.put(name, field);
+		return field;
+	}
+	
+	public Field getField(String name) {
+		return fieldMap.get(name);
+	}
+	
+	public List<Field> getFields() {
+		return Collections.unmodifiableList(fields);
+	}
+	
+	/**
+	 * @return The size of the block, rounded up to its alignment so that blocks can be placed back to back.
+	 */
+	public int getSize() {
+		return roundUp(end, maxAlignment);
+	}
+	
+	public int getAlignment() {
+		return maxAlignment;
+	}
+	
+	static int roundUp(int value, int alignment) {
+		return (value + alignment - 1) / alignment * alignment;
+	}
+	
+	public static class Field {
+		private final String name;
+		private final Type type;
+		private final int offset;
+		private final int arrayLength, arrayStride;
+		
+		private Field(String name, Type type, int offset, int arrayLength, int arrayStride) {
+			this.name = name;
+			this.type = type;
+			this.offset = offset;
+			this.arrayLength = arrayLength;
+			this.arrayStride = arrayStride;
+		}
+		
+		public String getName() {
+			return name;
+		}
+		
+		public Type getType() {
+			return type;
+		}
+		
+		public int getOffset() {
+			return offset;
+		}
+		
+		/**
+		 * @return 0 if this field is not an array.
+		 */
+		public int getArrayLength() {
+			return arrayLength;
+		}
+		
+		public int getArrayStride() {
+			return arrayStride;
+		}
+		
+		/**
+		 * Matrix columns are always vec4 aligned, in both packings.
+		 */
+		public int getMatrixStride() {
+			return type == Type.MAT3 || type == Type.MAT4 ? 16 : 0;
+		}
+		
+		private int getIndex(ByteBuffer block, int index, Type expected) {
+			if(type != expected)
+				throw new IllegalArgumentException("Field '" + name + "' is a " + type + ", not a " + expected + ".");
+			if(index < 0 || index >= Math.max(arrayLength, 1))
+				throw new IllegalArgumentException("Index " + index + " is out of bounds for field '" + name + "'.");
+			
+			return block.position() + offset + index * arrayStride;
+		}
+		
+		public void putFloat(ByteBuffer block, float value) {
+			putFloat(block, 0, value);
+		}
+		
+		public void putFloat(ByteBuffer block, int index, float value) {
+			block.putFloat(getIndex(block, index, Type.FLOAT), value);
+		}
+		
+		public void putInt(ByteBuffer block, int value) {
+			putInt(block, 0, value);
+		}
+		
+		public void putInt(ByteBuffer block, int index, int value) {
+			block.putInt(getIndex(block, index, Type.INT), value);
+		}
+		
+		public void put(ByteBuffer block, Vector2 value) {
+			put(block, 0, value);
+		}
+		
+		public void put(ByteBuffer block, int index, Vector2 value) {
+			int i = getIndex(block, index, Type.VEC2);
+			block.putFloat(i, value.x()).putFloat(i + 4, value.y());
+		}
+		
+		public void put(ByteBuffer block, Vector3 value) {
+			put(block, 0, value);
+		}
+		
+		public void put(ByteBuffer block, int index, Vector3 value) {
+			int i = getIndex(block, index, Type.VEC3);
+			block.putFloat(i, value.x()).putFloat(i + 4, value.y()).putFloat(i + 8, value.z());
+		}
+		
+		public void put(ByteBuffer block, Vector4 value) {
+			put(block, 0, value);
+		}
+		
+		public void put(ByteBuffer block, int index, Vector4 value) {
+			int i = getIndex(block, index, Type.VEC4);
+			block.putFloat(i, value.x()).putFloat(i + 4, value.y()).putFloat(i + 8, value.z()).putFloat(i + 12, value.w());
+		}
+		
+		public void put(ByteBuffer block, Matrix3 value) {
+			put(block, 0, value);
+		}
+		
+		public void put(ByteBuffer block, int index, Matrix3 value) {
+			int i = getIndex(block, index, Type.MAT3);
+			for(int col = 0; col < 3; col++)
+				for(int row = 0; row < 3; row++)
+					block.putFloat(i + col * 16 + row * 4, value.get(col, row));
+		}
+		
+		public void put(ByteBuffer block, Matrix4 value) {
+			put(block, 0, value);
+		}
+		
+		public void put(ByteBuffer block, int index, Matrix4 value) {
+			int i = getIndex(block, index, Type.MAT4);
+			for(int a = 0; a < 16; a++)
+				block.putFloat(i + a * 4, value.get(a));
+		}
+	}
+}
@@ -0,0 +1,161 @@
+package com.ra4king.opengl.util.buffers;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.TreeSet;
+
+/**
+ * A binary buddy allocator over a range of abstract units. Block sizes are powers of two multiples of the minimum block
+ * size, and every block's offset is a multiple of its size. Freed blocks merge with their buddy whenever it is free too.
+ * 
+ * @author Roi Atalla
+ */
+public class BuddyAllocator {
+	private final int capacity;
+	private final int minBlockSize;
+	private final int maxOrder;
+	
+	private final ArrayList<TreeSet<Integer>> freeBlocks;
+	private final HashMap<Integer,Integer> allocatedOrders;
+	
+	private int usedSize;
+	
+	/**
+	 * @param capacity     The total size, must be a power of two.
+	 * @param minBlockSize The smallest block handed out, must be a power of two.
+	 */
+	public BuddyAllocator(int capacity, int minBlockSize) {
+		if(!isPowerOfTwo(capacity) || !isPowerOfTwo(minBlockSize))
+			throw new IllegalArgumentException("capacity and minBlockSize must be powers of two.");
+		if(minBlockSize > capacity)
+			throw new IllegalArgumentException("minBlockSize cannot be greater than capacity.");
+		
+		this.capacity = capacity;
+		this.minBlockSize = minBlockSize;
+		maxOrder = Integer.numberOfTrailingZeros(capacity / minBlockSize);
+		
+		freeBlocks = new ArrayList<>(maxOrder + 1);
+		for(int a = 0; a <= maxOrder; a++)
+			freeBlocks.add(new TreeSet<Integer>());
+		
+		allocatedOrders = new HashMap<>();
+		
+		reset();
+	}
+	
+	public static boolean isPowerOfTwo(int n) {
+		return n > 0 && (n & (n - 1)) == 0;
+	}
+	
+	public static int nextPowerOfTwo(int n) {
+		if(n <= 1)
+			return 1;
+		
+		return Integer.highestOneBit(n - 1) << 1;
+	}
+	
+	/**
+	 * Frees all blocks.
+	 */
+	public void reset() {
+		for(TreeSet<Integer> blocks : freeBlocks)
+			blocks.clear();
+		
+		freeBlocks.get(maxOrder).add(0);
+		allocatedOrders.clear();
+		usedSize = 0;
+	}
+	
+	public int getCapacity() {
+		return capacity;
+	}
+	
+	/**
+	 * @return The total size of all allocated blocks, including the rounding up to block sizes.
+	 */
+	public int getUsedSize() {
+		return usedSize;
+	}
+	
+	public int getAllocationCount() {
+		return allocatedOrders.size();
+	}
+	
+	public int getLargestFreeBlock() {
+		for(int order = maxOrder; order >= 0; order--)
+			if(!freeBlocks.get(order).isEmpty())
+				return getBlockSizeForOrder(order);
+		
+		return 0;
+	}
+	
+	/**
+	 * @return The size of the block at offset, or -1 if there is no allocated block there.
+	 */
+	public int getBlockSize(int offset) {
+		Integer order = allocatedOrders.get(offset);
+		return order == null ? -1 : getBlockSizeForOrder(order);
+	}
+	
+	/**
+	 * @return The offset of a block of at least size units, or -1 if there is no free block large enough.
+	 */
+	public int allocate(int size) {
+		if(size <= 0)
+			throw new IllegalArgumentException("size must be positive.");
+		if(size > capacity)
+			return -1;
+		
+		int order = getOrder(size);
+		
+		int freeOrder = order;
+		while(freeOrder <= maxOrder && freeBlocks.get(freeOrder).isEmpty())
+			freeOrder++;
+		
+		if(freeOrder > maxOrder)
+			return -1;
+		
+		// lowest offsets first keeps allocations packed toward the start
+		int offset = freeBlocks.get(freeOrder).pollFirst();
+		
+		while(freeOrder > order) {
+			freeOrder--;
+			freeBlocks.get(freeOrder).add(offset + getBlockSizeForOrder(freeOrder));
+		}
+		
+		allocatedOrders.put(offset, order);
+		usedSize += getBlockSizeForOrder(order);
+		
+		return offset;
+	}
+	
+	public void free(int offset) {
+		Integer allocatedOrder = allocatedOrders.remove(offset);
+		if(allocatedOrder == null)
+			throw new IllegalArgumentException("No block allocated at offset " + offset);
+		
+		int order = allocatedOrder;
+		usedSize -= getBlockSizeForOrder(order);
+		
+		while(order < maxOrder) {
+			int buddy = offset ^ getBlockSizeForOrder(order);
+			
+			if(!freeBlocks.get(order).remove(buddy))
+				break;
+			
+			offset = Math.min(offset, buddy);
+			order++;
+		}
+		
+		freeBlocks.get(order).add(offset);
+	}
+	
+	private int getOrder(int size) {
+		int blocks = (size + minBlockSize - 1) / minBlockSize;
+		return Integer.numberOfTrailingZeros(nextPowerOfTwo(blocks));
+	}
+	
+	private int getBlockSizeForOrder(int order) {
+		return minBlockSize << order;
+	}
+}
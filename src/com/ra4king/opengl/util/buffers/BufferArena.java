@@ -0,0 +1,416 @@
+package com.ra4king.opengl.util.buffers;
+
+import static org.lwjgl.opengl.GL15.*;
+import static org.lwjgl.opengl.GL20.*;
+import static org.lwjgl.opengl.GL31.*;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+import org.lwjgl.BufferUtils;
+import org.lwjgl.opengl.ContextCapabilities;
+import org.lwjgl.opengl.GLContext;
+
+import com.ra4king.opengl.util.Mesh.Attribute;
+import com.ra4king.opengl.util.render.GLState;
+import com.ra4king.opengl.util.render.GLStats;
+import com.ra4king.opengl.util.render.GLStats.Counter;
+import com.ra4king.opengl.util.render.RenderUtils;
+
+/**
+ * Packs the vertices and indices of many meshes that share a vertex format into a few large pages. Each page is an
+ * interleaved vertex buffer, an element buffer and a VAO over both, so all meshes in a page draw from the same VAO
+ * using base vertex and first index offsets.
+ *
+ * Vertices are sub-allocated in units of whole vertices and indices in bytes, both with a BuddyAllocator.
+ *
+ * @author Roi Atalla
+ */
+public class BufferArena {
+	private static final int MIN_VERTEX_BLOCK = 16;
+	private static final int MIN_INDEX_BLOCK = 64;
+
+	private final Attribute[] format;
+	private final int[] attributeOffsets;
+	private final int stride;
+
+	private final int verticesPerPage;
+	private final int indexBytesPerPage;
+
+	private final ArrayList<Page> pages = new ArrayList<>();
+
+	/**
+	 * @param format            The attributes every mesh placed in this arena must have, with matching types and sizes.
+	 * @param verticesPerPage   The default number of vertices in a page, rounded up to a power of two.
+	 * @param indexBytesPerPage The default size in bytes of a page's element buffer, rounded up to a power of two.
+	 */
+	public BufferArena(List<Attribute> format, int verticesPerPage, int indexBytesPerPage) {
+		ContextCapabilities caps = GLContext.getCapabilities();
+		if(!caps.OpenGL32 && !caps.GL_ARB_draw_elements_base_vertex)
+			throw new UnsupportedOperationException("GL_ARB_draw_elements_base_vertex not supported on this system.");
+		if(!caps.OpenGL31 && !caps.GL_ARB_copy_buffer)
+			throw new UnsupportedOperationException("GL_ARB_copy_buffer not supported on this system.");
+
+		if(format.isEmpty())
+			throw new IllegalArgumentException("format must have at least 1 attribute.");
+
+		this.format = format.toArray(new Attribute[format.size()]);
+
+		attributeOffsets = new int[this.format.length];
+
+		int offset = 0;
+		for(int a = 0; a < this.format.length; a++) {
+			attributeOffsets[a] = offset;
+
+			// keep every attribute 4 byte aligned
+			offset += (getAttributeSize(this.format[a]) + 3) & ~3;
+		}
+
+		stride = offset;
+
+		this.verticesPerPage = BuddyAllocator.nextPowerOfTwo(Math.max(verticesPerPage, MIN_VERTEX_BLOCK));
+		this.indexBytesPerPage = BuddyAllocator.nextPowerOfTwo(Math.max(indexBytesPerPage, MIN_INDEX_BLOCK));
+	}
+
+	private static int getAttributeSize(Attribute attrib) {
+		return attrib.size * attrib.getType().size;
+	}
+
+	/**
+	 * @return The size in bytes of one interleaved vertex.
+	 */
+	public int getStride() {
+		return stride;
+	}
+
+	public int getPageCount() {
+		return pages.size();
+	}
+
+	/**
+	 * Copies a mesh's vertex data, laid out the way Mesh stores it with each attribute in its own block, into an
+	 * interleaved page, and its indices into the same page's element buffer.
+	 *
+	 * @param data       The mesh's vertex data.
+	 * @param attributes The attributes describing data, must contain an attribute matching each attribute of the format.
+	 * @param indices    The mesh's indices, may be null.
+	 */
+	public Allocation allocate(ByteBuffer data, List<Attribute> attributes, ByteBuffer indices) {
+		Attribute[] sources = new Attribute[format.length];
+		int vertexCount = Integer.MAX_VALUE;
+
+		for(int a = 0; a < format.length; a++) {
+			for(Attribute attrib : attributes) {
+				if(attrib.index == format[a].index) {
+					sources[a] = attrib;
+					break;
+				}
+			}
+
+			if(sources[a] == null)
+				throw new IllegalArgumentException("Missing attribute " + format[a].index + ".");
+			if(sources[a].getType() != format[a].getType() || sources[a].size != format[a].size)
+				throw new IllegalArgumentException("Attribute " + format[a].index + " does not match the arena's format.");
+
+			vertexCount = Math.min(vertexCount, sources[a].getVertexCount());
+		}
+
+		if(vertexCount == 0)
+			throw new IllegalArgumentException("Mesh has no vertices.");
+
+		int indexBytes = indices == null ? 0 : indices.remaining();
+
+		Allocation allocation = null;
+		for(Page page : pages) {
+			allocation = page.allocate(vertexCount, indexBytes);
+			if(allocation != null)
+				break;
+		}
+
+		if(allocation == null) {
+			Page page = new Page(Math.max(verticesPerPage, BuddyAllocator.nextPowerOfTwo(vertexCount)),
+			                     Math.max(indexBytesPerPage, BuddyAllocator.nextPowerOfTwo(indexBytes)));
+			pages.add(page);
+
+			allocation = page.allocate(vertexCount, indexBytes);
+		}
+
+		ByteBuffer interleaved = BufferUtils.createByteBuffer(vertexCount * stride);
+		for(int a = 0; a < format.length; a++) {
+			int size = getAttributeSize(format[a]);
+			int src = data.position() + sources[a].getOffset();
+
+			for(int v = 0; v < vertexCount; v++) {
+				int dest = v * stride + attributeOffsets[a];
+
+				for(int b = 0; b < size; b++)
+					interleaved.put(dest + b, data.get(src + v * size + b));
+			}
+		}
+
+		GLState.bindBuffer(GL_COPY_WRITE_BUFFER, allocation.page.vertexBuffer);
+		glBufferSubData(GL_COPY_WRITE_BUFFER, (long)allocation.baseVertex * stride, interleaved);
+		GLStats.add(Counter.UPLOAD_BYTES, interleaved.capacity());
+
+		if(indices != null) {
+			GLState.bindBuffer(GL_COPY_WRITE_BUFFER, allocation.page.indexBuffer);
+			glBufferSubData(GL_COPY_WRITE_BUFFER, allocation.indexOffset, indices);
+			GLStats.add(Counter.UPLOAD_BYTES, indexBytes);
+		}
+
+		GLState.bindBuffer(GL_COPY_WRITE_BUFFER, 0);
+
+		return allocation;
+	}
+
+	public void free(Allocation allocation) {
+		if(allocation.page == null)
+			throw new IllegalArgumentException("Allocation already freed.");
+
+		allocation.page.free(allocation);
+	}
+
+	/**
+	 * Repacks the allocations of every page toward its start so that freed space coalesces into large blocks, and
+	 * deletes pages left empty. Moved allocations get new offsets and a new generation.
+	 */
+	public void defragment() {
+		for(int a = pages.size() - 1; a >= 0; a--) {
+			Page page = pages.get(a);
+
+			if(page.allocations.isEmpty()) {
+				page.destroy();
+				pages.remove(a);
+			} else {
+				page.defragment();
+			}
+		}
+	}
+
+	public void destroy() {
+		for(Page page : pages)
+			page.destroy();
+
+		pages.clear();
+	}
+
+	private class Page {
+		private final int vertexBuffer, indexBuffer, vao;
+		private final BuddyAllocator vertices, indices;
+		private final ArrayList<Allocation> allocations = new ArrayList<>();
+
+		Page(int vertexCapacity, int indexCapacity) {
+			vertices = new BuddyAllocator(vertexCapacity, MIN_VERTEX_BLOCK);
+			indices = new BuddyAllocator(indexCapacity, MIN_INDEX_BLOCK);
+
+			vertexBuffer = glGenBuffers();
+			GLState.bindBuffer(GL_COPY_WRITE_BUFFER, vertexBuffer);
+			glBufferData(GL_COPY_WRITE_BUFFER, (long)vertexCapacity * stride, GL_STATIC_DRAW);
+
+			indexBuffer = glGenBuffers();
+			GLState.bindBuffer(GL_COPY_WRITE_BUFFER, indexBuffer);
+			glBufferData(GL_COPY_WRITE_BUFFER, indexCapacity, GL_STATIC_DRAW);
+
+			GLState.bindBuffer(GL_COPY_WRITE_BUFFER, 0);
+
+			vao = RenderUtils.glGenVertexArrays();
+			GLState.bindVertexArray(vao);
+
+			GLState.bindBuffer(GL_ARRAY_BUFFER, vertexBuffer);
+			for(int a = 0; a < format.length; a++) {
+				Attribute attrib = format[a];
+				glEnableVertexAttribArray(attrib.index);
+				glVertexAttribPointer(attrib.index, attrib.size, attrib.getType().dataType, attrib.getType().normalized, stride, attributeOffsets[a]);
+			}
+
+			GLState.bindBuffer(GL_ELEMENT_ARRAY_BUFFER, indexBuffer);
+
+			GLState.bindVertexArray(0);
+			GLState.bindBuffer(GL_ARRAY_BUFFER, 0);
+		}
+
+		Allocation allocate(int vertexCount, int indexBytes) {
+			int baseVertex = vertices.allocate(vertexCount);
+			if(baseVertex == -1)
+				return null;
+
+			int indexOffset = 0;
+			if(indexBytes > 0) {
+				indexOffset = indices.allocate(indexBytes);
+
+				if(indexOffset == -1) {
+					vertices.free(baseVertex);
+					return null;
+				}
+			}
+
+			Allocation allocation = new Allocation(this, baseVertex, vertexCount, indexOffset, indexBytes);
+			allocations.add(allocation);
+			return allocation;
+		}
+
+		void free(Allocation allocation) {
+			vertices.free(allocation.baseVertex);
+			if(allocation.indexSize > 0)
+				indices.free(allocation.indexOffset);
+
+			allocations.remove(allocation);
+			allocation.page = null;
+		}
+
+		void defragment() {
+			int count = allocations.size();
+			int[] oldVertexOffsets = new int[count];
+			int[] oldIndexOffsets = new int[count];
+
+			// buddy blocks placed largest first pack without gaps
+			Collections.sort(allocations, new Comparator<Allocation>() {
+				@Override
+				public int compare(Allocation a1, Allocation a2) {
+					return Integer.compare(a2.vertexCount, a1.vertexCount);
+				}
+			});
+
+			vertices.reset();
+			for(int a = 0; a < count; a++) {
+				Allocation allocation = allocations.get(a);
+				oldVertexOffsets[a] = allocation.baseVertex * stride;
+				oldIndexOffsets[a] = allocation.indexOffset;
+				allocation.baseVertex = vertices.allocate(allocation.vertexCount);
+			}
+
+			ArrayList<Allocation> indexed = new ArrayList<>();
+			for(Allocation allocation : allocations)
+				if(allocation.indexSize > 0)
+					indexed.add(allocation);
+
+			Collections.sort(indexed, new Comparator<Allocation>() {
+				@Override
+				public int compare(Allocation a1, Allocation a2) {
+					return Integer.compare(a2.indexSize, a1.indexSize);
+				}
+			});
+
+			indices.reset();
+			for(Allocation allocation : indexed)
+				allocation.indexOffset = indices.allocate(allocation.indexSize);
+
+			int[] newVertexOffsets = new int[count];
+			int[] vertexSizes = new int[count];
+			int[] newIndexOffsets = new int[count];
+			int[] indexSizes = new int[count];
+
+			for(int a = 0; a < count; a++) {
+				Allocation allocation = allocations.get(a);
+				newVertexOffsets[a] = allocation.baseVertex * stride;
+				vertexSizes[a] = allocation.vertexCount * stride;
+				newIndexOffsets[a] = allocation.indexOffset;
+				indexSizes[a] = allocation.indexSize;
+
+				if(newVertexOffsets[a] != oldVertexOffsets[a] || newIndexOffsets[a] != oldIndexOffsets[a])
+					allocation.generation++;
+			}
+
+			relocate(vertexBuffer, vertices.getCapacity() * stride, oldVertexOffsets, newVertexOffsets, vertexSizes);
+			relocate(indexBuffer, indices.getCapacity(), oldIndexOffsets, newIndexOffsets, indexSizes);
+		}
+
+		/**
+		 * Moves ranges within buffer through a temporary copy, since they may overlap.
+		 */
+		private void relocate(int buffer, int bufferSize, int[] oldOffsets, int[] newOffsets, int[] sizes) {
+			boolean moved = false;
+			for(int a = 0; a < oldOffsets.length && !moved; a++)
+				moved = sizes[a] > 0 && oldOffsets[a] != newOffsets[a];
+
+			if(!moved)
+				return;
+
+			int temp = glGenBuffers();
+			GLState.bindBuffer(GL_COPY_WRITE_BUFFER, temp);
+			glBufferData(GL_COPY_WRITE_BUFFER, bufferSize, GL_STREAM_COPY);
+
+			GLState.bindBuffer(GL_COPY_READ_BUFFER, buffer);
+			glCopyBufferSubData(GL_COPY_READ_BUFFER, GL_COPY_WRITE_BUFFER, 0, 0, bufferSize);
+
+			for(int a = 0; a < oldOffsets.length; a++)
+				if(sizes[a] > 0 && oldOffsets[a] != newOffsets[a])
+					glCopyBufferSubData(GL_COPY_WRITE_BUFFER, GL_COPY_READ_BUFFER, oldOffsets[a], newOffsets[a], sizes[a]);
+
+			GLState.bindBuffer(GL_COPY_READ_BUFFER, 0);
+			GLState.bindBuffer(GL_COPY_WRITE_BUFFER, 0);
+			GLState.deleteBuffer(temp);
+		}
+
+		void destroy() {
+			for(Allocation allocation : allocations)
+				allocation.page = null;
+
+			allocations.clear();
+
+			GLState.deleteVertexArray(vao);
+			GLState.deleteBuffer(vertexBuffer);
+			GLState.deleteBuffer(indexBuffer);
+		}
+	}
+
+	/**
+	 * A mesh's place in the arena. Offsets change when the arena is defragmented, and the generation is incremented
+	 * whenever they do, so anything caching them can tell when to refresh.
+	 */
+	public static class Allocation {
+		private Page page;
+
+		private int baseVertex;
+		private final int vertexCount;
+		private int indexOffset;
+		private final int indexSize;
+
+		private int generation;
+
+		private Allocation(Page page, int baseVertex, int vertexCount, int indexOffset, int indexSize) {
+			this.page = page;
+			this.baseVertex = baseVertex;
+			this.vertexCount = vertexCount;
+			this.indexOffset = indexOffset;
+			this.indexSize = indexSize;
+		}
+
+		public boolean isFreed() {
+			return page == null;
+		}
+
+		/**
+		 * @return The VAO of the page holding this allocation, shared with every other allocation in the page.
+		 */
+		public int getVAO() {
+			return page.vao;
+		}
+
+		public int getBaseVertex() {
+			return baseVertex;
+		}
+
+		public int getVertexCount() {
+			return vertexCount;
+		}
+
+		/**
+		 * @return The byte offset of the indices in the page's element buffer.
+		 */
+		public int getIndexOffset() {
+			return indexOffset;
+		}
+
+		public int getIndexSize() {
+			return indexSize;
+		}
+
+		public int getGeneration() {
+			return generation;
+		}
+	}
+}
@@ -2,23 +2,65 @@ package com.ra4king.opengl.util.buffers;
 
 import static org.lwjgl.opengl.GL15.*;
 import static org.lwjgl.opengl.GL30.*;
+import static org.lwjgl.opengl.GL32.*;
 import static org.lwjgl.opengl.GL44.*;
 
 import java.nio.ByteBuffer;
 
+import org.lwjgl.opengl.GLSync;
+
+import com.ra4king.opengl.util.render.GLStats;
+import com.ra4king.opengl.util.render.GLStats.Counter;
+
 /**
+ * A persistently mapped ring of numBuffers regions of size bytes each. nextBuffer() fences the GPU commands issued
+ * while the current region was in use, and bind() waits on the fence of the region it hands out, so the CPU never writes
+ * to a region the GPU may still be reading.
+ * 
  * @author Roi Atalla
  */
 public class BufferStorage extends GLBuffer {
+	public enum WaitPolicy {
+		/**
+		 * Busy-polls the fence. Lowest latency, burns a core while stalled.
+		 */
+		SPIN,
+		/**
+		 * Polls the fence, yielding the thread between polls.
+		 */
+		YIELD,
+		/**
+		 * Lets the driver block the thread until the fence is signaled.
+		 */
+		BLOCK
+	}
+	
+	private static final long BLOCK_TIMEOUT = 1000000000L;
+	
 	private ByteBuffer mappedBuffer;
 	private final int numBuffers;
 	private int bufferIndex;
 	
+	private final GLSync[] fences;
+	private WaitPolicy waitPolicy;
+	
+	private long totalStallTime, maxStallTime;
+	private int stallCount, waitCount;
+	
 	public BufferStorage(int type, int size, boolean isStreaming, int numBuffers) {
+		this(type, size, isStreaming, numBuffers, WaitPolicy.BLOCK);
+	}
+	
+	public BufferStorage(int type, int size, boolean isStreaming, int numBuffers, WaitPolicy waitPolicy) {
 		super(type, size, isStreaming);
 		
+		if(waitPolicy == null)
+			throw new IllegalArgumentException("waitPolicy cannot be null.");
+		
 		this.numBuffers = numBuffers;
+		this.waitPolicy = waitPolicy;
 		bufferIndex = 0;
+		fences = new GLSync[numBuffers];
 		
 		init();
 	}
@@ -28,7 +70,7 @@ public class BufferStorage extends GLBuffer {
 		if(numBuffers == 0)
 			return;
 		
-		glBindBuffer(type, name);
+		bindBuffer();
 		
 		int flags = GL_MAP_WRITE_BIT | GL_MAP_PERSISTENT_BIT | GL_MAP_COHERENT_BIT;
 		
@@ -36,10 +78,105 @@ public class BufferStorage extends GLBuffer {
 		mappedBuffer = glMapBufferRange(type, 0, numBuffers * size, flags, null);
 	}
 	
+	/**
+	 * Fences the current region and moves on to the next one. Call this after the draw calls that read the current
+	 * region have been issued.
+	 */
 	public void nextBuffer() {
+		if(fences[bufferIndex] != null)
+			glDeleteSync(fences[bufferIndex]);
+		
+		fences[bufferIndex] = glFenceSync(GL_SYNC_GPU_COMMANDS_COMPLETE, 0);
+		
 		bufferIndex = (bufferIndex + 1) % numBuffers;
 	}
 	
+	private void waitForFence(int index) {
+		GLSync fence = fences[index];
+		if(fence == null)
+			return;
+		
+		fences[index] = null;
+		waitCount++;
+		
+		// the first wait flushes, otherwise the fence may never reach the GPU
+		int result = glClientWaitSync(fence, GL_SYNC_FLUSH_COMMANDS_BIT, 0);
+		
+		if(result == GL_TIMEOUT_EXPIRED) {
+			long start = System.nanoTime();
+			
+			do {
+				switch(waitPolicy) {
+					case SPIN:
+						result = glClientWaitSync(fence, 0, 0);
+						break;
+					case YIELD:
+						Thread.yield();
+						result = glClientWaitSync(fence, 0, 0);
+						break;
+					case BLOCK:
+						result = glClientWaitSync(fence, 0, BLOCK_TIMEOUT);
+						break;
+				}
+			} while(result == GL_TIMEOUT_EXPIRED);
+			
+			long stallTime = System.nanoTime() - start;
+			totalStallTime += stallTime;
+			maxStallTime = Math.max(maxStallTime, stallTime);
+			stallCount++;
+		}
+		
+		glDeleteSync(fence);
+		
+		if(result == GL_WAIT_FAILED)
+			throw new RuntimeException("Waiting on buffer fence failed.");
+	}
+	
+	public WaitPolicy getWaitPolicy() {
+		return waitPolicy;
+	}
+	
+	public void setWaitPolicy(WaitPolicy waitPolicy) {
+		if(waitPolicy == null)
+			throw new IllegalArgumentException("waitPolicy cannot be null.");
+		
+		this.waitPolicy = waitPolicy;
+	}
+	
+	/**
+	 * @return The total time in nanoseconds bind() spent waiting for the GPU to release a region.
+	 */
+	public long getTotalStallTime() {
+		return totalStallTime;
+	}
+	
+	/**
+	 * @return The longest single wait in nanoseconds.
+	 */
+	public long getMaxStallTime() {
+		return maxStallTime;
+	}
+	
+	/**
+	 * @return The number of times bind() had to wait. If this is a sizeable fraction of getWaitCount(), the ring needs
+	 *         more buffers.
+	 */
+	public int getStallCount() {
+		return stallCount;
+	}
+	
+	/**
+	 * @return The number of fences bind() checked.
+	 */
+	public int getWaitCount() {
+		return waitCount;
+	}
+	
+	public void resetStallStats() {
+		totalStallTime = maxStallTime = 0;
+		stallCount = waitCount = 0;
+	}
+	
 	public int getBufferIndex() {
 		return bufferIndex;
 	}
@@ -48,9 +185,27 @@ public class BufferStorage extends GLBuffer {
 		return numBuffers;
 	}
 	
+	/**
+	 * @return The byte offset of the current region within the buffer object.
+	 */
+	public int getBufferOffset() {
+		return bufferIndex * size;
+	}
+	
 	@Override
 	public ByteBuffer bind(int offset, int size) {
-		int bufferOffset = bufferIndex * this.size;
+		GLStats.add(Counter.UPLOAD_BYTES, size);
+		
+		return bindRegion(offset, size);
+	}
+	
+	/**
+	 * Same as bind(), without counting the range as uploaded. For allocators that count their own writes.
+	 */
+	ByteBuffer bindRegion(int offset, int size) {
+		waitForFence(bufferIndex);
+		
+		int bufferOffset = getBufferOffset();
 		mappedBuffer.limit(bufferOffset + offset + size).position(bufferOffset + offset);
 		return mappedBuffer;
 	}
@@ -6,14 +6,33 @@ import java.nio.ByteBuffer;
 
 import org.lwjgl.BufferUtils;
 
+import com.ra4king.opengl.util.render.GLStats;
+import com.ra4king.opengl.util.render.GLStats.Counter;
+
 /**
+ * Keeps a client-side copy of the whole buffer and uploads only the ranges that were bound since the last upload.
+ * Ranges closer than COALESCE_GAP bytes apart are merged into one glBufferSubData call. If orphaning is enabled, the
+ * buffer is only orphaned when at least ORPHAN_THRESHOLD of it is dirty, since the whole copy must then be re-uploaded.
+ * 
  * @author Roi Atalla
  */
 public class BufferSubData extends GLBuffer {
+	private static final int COALESCE_GAP = 256;
+	private static final float ORPHAN_THRESHOLD = 0.75f;
+	
 	private ByteBuffer buffer;
 	private boolean orphan;
 	
 	private boolean isBound;
+	private int boundOffset, boundSize;
+	
+	private boolean autoFlush;
+	
+	private int[] dirtyStarts = new int[8];
+	private int[] dirtyEnds = new int[8];
+	private int dirtyCount;
+	
+	private long uploadedBytes;
 	
 	public BufferSubData(int type, int size, boolean isStreaming, boolean orphan) {
 		super(type, size, isStreaming);
@@ -21,19 +40,23 @@ public class BufferSubData extends GLBuffer {
 		this.orphan = orphan;
 		buffer = BufferUtils.createByteBuffer(size);
 		isBound = false;
+		autoFlush = true;
 	}
 	
 	/**
-	 * Put your data in the ByteBuffer. Do not flip when finished. Updates aren't final until unbind() is called.
+	 * Put your data in the ByteBuffer. Do not flip when finished. Updates aren't final until unbind() is called, or
+	 * flush() if auto flushing is disabled.
 	 */
 	@Override
 	public ByteBuffer bind(int offset, int size) {
 		if(isBound)
 			throw new IllegalStateException("Buffer is already bound.");
+		if(offset < 0 || size < 0 || offset + size > this.size)
+			throw new IllegalArgumentException("Range [" + offset + ", " + (offset + size) + ") is outside the buffer.");
 		
 		isBound = true;
-		
-		glBindBuffer(type, name);
+		boundOffset = offset;
+		boundSize = size;
 		
 		buffer.limit(offset + size).position(offset);
 		return buffer;
@@ -46,12 +69,108 @@ public class BufferSubData extends GLBuffer {
 		
 		isBound = false;
 		
-		buffer.flip();
+		if(boundSize > 0)
+			addDirtyRange(boundOffset, boundOffset + boundSize);
+		
+		if(autoFlush)
+			flush();
+	}
+	
+	/**
+	 * When disabled, unbind() only records the range as dirty, letting several bind/unbind pairs be uploaded together by
+	 * flush(). Enabled by default.
+	 */
+	public void setAutoFlush(boolean autoFlush) {
+		this.autoFlush = autoFlush;
+	}
+	
+	public boolean isAutoFlush() {
+		return autoFlush;
+	}
+	
+	/**
+	 * @return The total number of bytes uploaded since creation.
+	 */
+	public long getUploadedBytes() {
+		return uploadedBytes;
+	}
+	
+	/**
+	 * Uploads all dirty ranges.
+	 */
+	public void flush() {
+		if(isBound)
+			throw new IllegalStateException("Cannot flush while bound.");
+		
+		if(dirtyCount == 0)
+			return;
+		
+		int dirtyBytes = 0;
+		for(int a = 0; a < dirtyCount; a++)
+			dirtyBytes += dirtyEnds[a] - dirtyStarts[a];
+		
+		bindBuffer();
+		
+		if(orphan && dirtyBytes >= size * ORPHAN_THRESHOLD) {
+			buffer.limit(size).position(0);
+			glBufferData(type, buffer, isStreaming ? GL_STREAM_DRAW : GL_STATIC_DRAW);
+			uploadedBytes += size;
+			GLStats.add(Counter.UPLOAD_BYTES, size);
+		}
+		else {
+			for(int a = 0; a < dirtyCount; a++) {
+				buffer.limit(dirtyEnds[a]).position(dirtyStarts[a]);
+				glBufferSubData(type, dirtyStarts[a], buffer);
+			}
+			
+			uploadedBytes += dirtyBytes;
+			GLStats.add(Counter.UPLOAD_BYTES, dirtyBytes);
+		}
+		
+		unbindBuffer();
+		
+		buffer.clear();
+		dirtyCount = 0;
+	}
+	
+	/**
+	 * Inserts [start, end) into the sorted dirty ranges, merging it with any range it overlaps or comes within
+	 * COALESCE_GAP bytes of.
+	 */
+	private void addDirtyRange(int start, int end) {
+		int first = 0;
+		while(first < dirtyCount && dirtyEnds[first] + COALESCE_GAP < start)
+			first++;
+		
+		int last = first;
+		while(last < dirtyCount && dirtyStarts[last] <= end + COALESCE_GAP) {
+			start = Math.min(start, dirtyStarts[last]);
+			end = Math.max(end, dirtyEnds[last]);
+			last++;
+		}
+		
+		int merged = last - first;
 		
-		if(orphan)
-			glBufferData(type, size, isStreaming ? GL_STREAM_DRAW : GL_STATIC_DRAW);
+		if(merged == 0) {
+			if(dirtyCount == dirtyStarts.length) {
+				int[] newStarts = new int[dirtyCount * 2];
+				int[] newEnds = new int[dirtyCount * 2];
+				System.arraycopy(dirtyStarts, 0, newStarts, 0, dirtyCount);
+				System.arraycopy(dirtyEnds, 0, newEnds, 0, dirtyCount);
+				dirtyStarts = newStarts;
+				dirtyEnds = newEnds;
+			}
+			
+			System.arraycopy(dirtyStarts, first, dirtyStarts, first + 1, dirtyCount - first);
+			System.arraycopy(dirtyEnds, first, dirtyEnds, first + 1, dirtyCount - first);
+		}
+		else if(merged > 1) {
+			System.arraycopy(dirtyStarts, last, dirtyStarts, first + 1, dirtyCount - last);
+			System.arraycopy(dirtyEnds, last, dirtyEnds, first + 1, dirtyCount - last);
+		}
 		
-		glBufferSubData(type, 0, buffer);
-		glBindBuffer(type, 0);
+		dirtyStarts[first] = start;
+		dirtyEnds[first] = end;
+		dirtyCount += 1 - merged;
 	}
 }
@@ -0,0 +1,220 @@
+package com.ra4king.opengl.util.buffers;
+
+import static org.lwjgl.opengl.GL11.*;
+import static org.lwjgl.opengl.GL31.*;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+import org.lwjgl.opengl.GLContext;
+
+import com.ra4king.opengl.util.render.GLState;
+import com.ra4king.opengl.util.render.GLStats;
+import com.ra4king.opengl.util.render.GLStats.Counter;
+
+/**
+ * Hands out short-lived sub-ranges of one persistently mapped BufferStorage ring with bump-pointer allocation. All
+ * allocations of a frame come from that frame's region and are released together by endFrame(), after which the region
+ * is fenced and only reused once the GPU is done with it.
+ * 
+ * Allocations are plain byte offsets into the buffer object, written through the single view returned by getData(),
+ * so allocating creates no objects. Callers that want the buffer name, offset and a view of the allocated bytes together
+ * pass a reusable Allocation holder instead.
+ * 
+ * @author Roi Atalla
+ */
+public class FrameAllocator {
+	private final BufferStorage storage;
+	private final int frameSize;
+	private final int uniformAlignment;
+	
+	private ByteBuffer data;
+	private boolean isRegionBound;
+	private int position;
+	
+	private int highWaterMark;
+	
+	/**
+	 * @param frameSize The number of bytes available each frame.
+	 * @param numFrames The number of frames the GPU may lag behind before allocations stall, usually 2 or 3.
+	 */
+	public FrameAllocator(int frameSize, int numFrames) {
+		if(!GLContext.getCapabilities().GL_ARB_buffer_storage)
+			throw new UnsupportedOperationException("GL_ARB_buffer_storage not supported on this system.");
+		
+		this.frameSize = frameSize;
+		
+		// GL_COPY_WRITE_BUFFER is only used to create the storage, allocations can be bound to any target
+		storage = new BufferStorage(GL_COPY_WRITE_BUFFER, frameSize, true, numFrames);
+		
+		uniformAlignment = glGetInteger(GL_UNIFORM_BUFFER_OFFSET_ALIGNMENT);
+	}
+	
+	public BufferStorage getStorage() {
+		return storage;
+	}
+	
+	/**
+	 * @return The name of the buffer object all allocations come from.
+	 */
+	public int getName() {
+		return storage.getName();
+	}
+	
+	public int getFrameSize() {
+		return frameSize;
+	}
+	
+	/**
+	 * @return The most bytes used in a single frame since creation.
+	 */
+	public int getHighWaterMark() {
+		return highWaterMark;
+	}
+	
+	/**
+	 * @return A native-order view of the whole buffer object, indexed by buffer offset. It is shared by all
+	 *         allocations, so write with absolute puts only. Valid once this frame's first allocation was made.
+	 */
+	public ByteBuffer getData() {
+		return data;
+	}
+	
+	/**
+	 * Allocates size bytes aligned for use with glBindBufferRange(GL_UNIFORM_BUFFER, ...).
+	 * 
+	 * @return The byte offset of the allocation in the buffer object.
+	 */
+	public int allocateUniform(int size) {
+		return allocate(size, uniformAlignment);
+	}
+	
+	public Allocation allocateUniform(int size, Allocation allocation) {
+		return allocate(size, uniformAlignment, allocation);
+	}
+	
+	/**
+	 * Allocates like allocate(int, int) and fills allocation with the result.
+	 * 
+	 * @return allocation
+	 */
+	public Allocation allocate(int size, int alignment, Allocation allocation) {
+		allocation.set(this, allocate(size, alignment), size);
+		return allocation;
+	}
+	
+	/**
+	 * Allocates size bytes whose offset within the buffer object is a multiple of alignment.
+	 * 
+	 * Throws IllegalStateException if this frame's region is full.
+	 * 
+	 * @return The byte offset of the allocation in the buffer object.
+	 */
+	public int allocate(int size, int alignment) {
+		if(size <= 0)
+			throw new IllegalArgumentException("size must be positive.");
+		if(alignment <= 0)
+			throw new IllegalArgumentException("alignment must be positive.");
+		
+		if(!isRegionBound) {
+			// waits until the GPU is done with this region
+			ByteBuffer region = storage.bindRegion(0, frameSize);
+			isRegionBound = true;
+			position = 0;
+			
+			// the storage stays mapped at the same address, so one view of all regions serves every frame
+			if(data == null) {
+				data = region.duplicate().order(ByteOrder.nativeOrder());
+				data.clear();
+			}
+		}
+		
+		int bufferOffset = storage.getBufferOffset();
+		
+		int offset = bufferOffset + position;
+		offset = (offset + alignment - 1) / alignment * alignment;
+		
+		int end = offset - bufferOffset + size;
+		if(end > frameSize)
+			throw new IllegalStateException("Frame allocator out of space: " + end + " bytes needed out of " + frameSize + ".");
+		
+		GLStats.add(Counter.UPLOAD_BYTES, size);
+		
+		position = end;
+		if(position > highWaterMark)
+			highWaterMark = position;
+		
+		return offset;
+	}
+	
+	/**
+	 * Releases all of this frame's allocations. Call this once the frame's draw calls have been issued.
+	 */
+	public void endFrame() {
+		if(!isRegionBound)
+			return;
+		
+		storage.nextBuffer();
+		isRegionBound = false;
+		position = 0;
+	}
+	
+	/**
+	 * Deletes the buffer object. Allocations must not be used afterwards.
+	 */
+	public void destroy() {
+		GLState.deleteBuffer(storage.getName());
+	}
+	
+	/**
+	 * A holder for one allocation at a time, refilled by every allocate call it is passed to so that allocating creates
+	 * no objects. It is not shared between threads.
+	 */
+	public static class Allocation {
+		private FrameAllocator allocator;
+		private int buffer;
+		private int offset;
+		private int size;
+		private ByteBuffer data;
+		
+		private void set(FrameAllocator allocator, int offset, int size) {
+			// the view is created once per allocator, later allocations only move its window
+			if(this.allocator != allocator) {
+				this.allocator = allocator;
+				data = allocator.data.duplicate().order(ByteOrder.nativeOrder());
+			}
+			
+			buffer = allocator.getName();
+			this.offset = offset;
+			this.size = size;
+			
+			data.limit(offset + size).position(offset);
+		}
+		
+		/**
+		 * @return The name of the buffer object, to be bound with the offset and size.
+		 */
+		public int getBuffer() {
+			return buffer;
+		}
+		
+		/**
+		 * @return The byte offset of the allocation in the buffer object.
+		 */
+		public int getOffset() {
+			return offset;
+		}
+		
+		public int getSize() {
+			return size;
+		}
+		
+		/**
+		 * @return A native-order view of the buffer object whose position and limit span exactly this allocation. It is
+		 *         owned by this holder and moved by its next allocation.
+		 */
+		public ByteBuffer getData() {
+			return data;
+		}
+	}
+}
@@ -6,13 +6,21 @@ import java.nio.ByteBuffer;
 
 import org.lwjgl.opengl.GLContext;
 
+import com.ra4king.opengl.util.render.GLState;
+
 /**
  * @author Roi Atalla
  */
 public abstract class GLBuffer {
+	/**
+	 * The number of regions of streaming BufferStorage rings. With a single region every nextBuffer() would wait for
+	 * the GPU to finish the previous frame.
+	 */
+	public static final int STREAMING_BUFFERS = 3;
+	
 	protected final int name;
 	protected final int type;
-	protected final int size;
+	protected int size;
 	protected final boolean isStreaming;
 	
 	public GLBuffer(int type, int size, boolean isStreaming) {
@@ -24,10 +32,18 @@ public abstract class GLBuffer {
 		init();
 	}
 	
+	/**
+	 * A streaming, non-resizable buffer may be a BufferStorage ring of STREAMING_BUFFERS regions. Callers that move
+	 * through the ring with nextBuffer() must source their draws from getBufferOffset().
+	 */
 	public static GLBuffer createBuffer(int type, int size, boolean resizable, boolean isStreaming) {
+		if(resizable && GLContext.getCapabilities().GL_ARB_map_buffer_range && GLContext.getCapabilities().GL_ARB_copy_buffer) {
+			return new ResizableBuffer(type, size, isStreaming);
+		}
+		
 		if(isStreaming) {
 			if(!resizable && GLContext.getCapabilities().GL_ARB_buffer_storage) {
-				return new BufferStorage(type, size, true, 1);
+				return new BufferStorage(type, size, true, STREAMING_BUFFERS);
 			}
 			
 			if(GLContext.getCapabilities().GL_ARB_map_buffer_range) {
@@ -51,10 +67,23 @@ public abstract class GLBuffer {
 	}
 	
 	protected void init() {
-		glBindBuffer(type, name);
+		bindBuffer();
 		glBufferData(type, size, isStreaming ? GL_STREAM_DRAW : GL_STATIC_DRAW);
 	}
 	
+	protected void bindBuffer() {
+		// the element array binding is part of the VAO state, don't modify whichever VAO is currently bound
+		if(type == GL_ELEMENT_ARRAY_BUFFER) {
+			GLState.bindVertexArray(0);
+		}
+		
+		GLState.bindBuffer(type, name);
+	}
+	
+	protected void unbindBuffer() {
+		GLState.bindBuffer(type, 0);
+	}
+	
 	public ByteBuffer bind() {
 		return bind(0, size);
 	}
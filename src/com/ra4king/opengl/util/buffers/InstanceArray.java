@@ -0,0 +1,229 @@
+package com.ra4king.opengl.util.buffers;
+
+import static org.lwjgl.opengl.GL11.*;
+import static org.lwjgl.opengl.GL31.*;
+import static org.lwjgl.opengl.GL32.*;
+import static org.lwjgl.opengl.GL43.*;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.lwjgl.opengl.ContextCapabilities;
+import org.lwjgl.opengl.GLContext;
+
+import com.ra4king.opengl.util.render.GLState;
+
+/**
+ * Streams per-instance records to the GPU every frame, through a shader storage buffer where supported and through
+ * uniform buffers otherwise.
+ *
+ * With storage buffers all records of a frame are bound at once as an unsized std430 array. The uniform buffer
+ * fallback is limited by GL_MAX_UNIFORM_BLOCK_SIZE, so records are split into batches of getBatchSize() records, each
+ * bound and drawn on its own. getDefines() tells the shader, through ShaderPreprocessor, which path is in use.
+ *
+ * Each frame: begin(count), seek(index) and write each record through the layout's fields, end(), draw, endFrame().
+ *
+ * @author Roi Atalla
+ */
+public class InstanceArray {
+	private final BlockLayout layout;
+	private final boolean isStorage;
+	private final int target;
+	private final int capacity, stride;
+	private final int batchSize, batchBytes;
+	private final GLBuffer buffer;
+	
+	private ByteBuffer data;
+	private int base;
+	private int count;
+	
+	public InstanceArray(BlockLayout layout, int capacity) {
+		this(layout, capacity, isStorageSupported());
+	}
+	
+	/**
+	 * @param useStorage Use a shader storage buffer, otherwise batched uniform buffers. The uniform buffer path only
+	 *                   accepts std140 layouts.
+	 */
+	public InstanceArray(BlockLayout layout, int capacity, boolean useStorage) {
+		if(capacity <= 0)
+			throw new IllegalArgumentException("Capacity must be positive.");
+		if(useStorage && !isStorageSupported())
+			throw new UnsupportedOperationException("Shader storage buffers not supported on this system.");
+		if(!useStorage && layout.getPacking() != BlockLayout.Packing.STD140)
+			throw new IllegalArgumentException("Uniform buffers require a std140 layout.");
+		
+		this.layout = layout;
+		this.isStorage = useStorage;
+		this.capacity = capacity;
+		
+		stride = layout.getSize();
+		
+		int size;
+		if(useStorage) {
+			target = GL_SHADER_STORAGE_BUFFER;
+			batchSize = capacity;
+			batchBytes = capacity * stride;
+			
+			if(batchBytes > glGetInteger64(GL_MAX_SHADER_STORAGE_BLOCK_SIZE))
+				throw new IllegalArgumentException("Capacity exceeds GL_MAX_SHADER_STORAGE_BLOCK_SIZE.");
+			
+			size = BlockLayout.roundUp(batchBytes, glGetInteger(GL_SHADER_STORAGE_BUFFER_OFFSET_ALIGNMENT));
+		}
+		else {
+			target = GL_UNIFORM_BUFFER;
+			batchSize = Math.min(capacity, glGetInteger(GL_MAX_UNIFORM_BLOCK_SIZE) / stride);
+			
+			if(batchSize == 0)
+				throw new IllegalArgumentException("A single record exceeds GL_MAX_UNIFORM_BLOCK_SIZE.");
+			
+			// every batch must start at a bindable offset
+			batchBytes = BlockLayout.roundUp(batchSize * stride, glGetInteger(GL_UNIFORM_BUFFER_OFFSET_ALIGNMENT));
+			size = batchBytes * ((capacity + batchSize - 1) / batchSize);
+		}
+		
+		// a BufferStorage ring lets the CPU write the next frame while the GPU still reads the previous ones
+		buffer = GLBuffer.createBuffer(target, size, false, true);
+	}
+	
+	public static boolean isStorageSupported() {
+		ContextCapabilities caps = GLContext.getCapabilities();
+		return caps.OpenGL43 || caps.GL_ARB_shader_storage_buffer_object;
+	}
+	
+	public BlockLayout getLayout() {
+		return layout;
+	}
+	
+	public boolean isStorage() {
+		return isStorage;
+	}
+	
+	public GLBuffer getBuffer() {
+		return buffer;
+	}
+	
+	public int getCapacity() {
+		return capacity;
+	}
+	
+	/**
+	 * @return The number of records written by the last begin().
+	 */
+	public int getCount() {
+		return count;
+	}
+	
+	/**
+	 * @return The most records bound at once, equal to the capacity with storage buffers.
+	 */
+	public int getBatchSize() {
+		return batchSize;
+	}
+	
+	/**
+	 * @return The number of batches needed to draw the current records.
+	 */
+	public int getBatchCount() {
+		return (count + batchSize - 1) / batchSize;
+	}
+	
+	/**
+	 * @return The number of records in the batch, to be used as its instance count.
+	 */
+	public int getBatchInstances(int batch) {
+		checkBatch(batch);
+		return Math.min(batchSize, count - batch * batchSize);
+	}
+	
+	/**
+	 * @return INSTANCE_STORAGE with storage buffers, INSTANCE_UNIFORM and INSTANCE_BATCH_SIZE=n otherwise. Pass these to
+	 *         the ShaderPreprocessor as features.
+	 */
+	public List<String> getDefines() {
+		if(isStorage)
+			return Collections.singletonList("INSTANCE_STORAGE");
+		
+		return Arrays.asList("INSTANCE_UNIFORM", "INSTANCE_BATCH_SIZE=" + batchSize);
+	}
+	
+	private int getRecordOffset(int index) {
+		return index / batchSize * batchBytes + index % batchSize * stride;
+	}
+	
+	/**
+	 * Starts writing this frame's records. May wait for the GPU to release the frame's region.
+	 */
+	public ByteBuffer begin(int count) {
+		if(data != null)
+			throw new IllegalStateException("Already writing.");
+		if(count < 0 || count > capacity)
+			throw new IllegalArgumentException("Count " + count + " is outside [0, " + capacity + "].");
+		
+		this.count = count;
+		
+		// mapping an empty range is an error
+		int size = count == 0 ? stride : getRecordOffset(count - 1) + stride;
+		data = buffer.bind(0, size).order(ByteOrder.nativeOrder());
+		base = data.position();
+		return data;
+	}
+	
+	/**
+	 * Positions the buffer returned by begin() at the start of the record, ready for the layout's fields.
+	 */
+	public ByteBuffer seek(int index) {
+		if(data == null)
+			throw new IllegalStateException("Not writing.");
+		if(index < 0 || index >= count)
+			throw new IllegalArgumentException("Index " + index + " is out of bounds.");
+		
+		data.position(base + getRecordOffset(index));
+		return data;
+	}
+	
+	public void end() {
+		if(data == null)
+			throw new IllegalStateException("Not writing.");
+		
+		buffer.unbind();
+		data = null;
+	}
+	
+	/**
+	 * Binds the batch's records to the indexed binding point of the storage or uniform block.
+	 */
+	public void bind(int binding, int batch) {
+		checkBatch(batch);
+		
+		int offset = batch * batchBytes;
+		if(buffer instanceof BufferStorage)
+			offset += ((BufferStorage)buffer).getBufferOffset();
+		
+		// uniform blocks declare a fixed size array and always get the full batch, storage blocks size their array
+		// from the bound range
+		int size = isStorage ? count * stride : batchBytes;
+		
+		GLState.bindBufferRange(target, binding, buffer.getName(), offset, size);
+	}
+	
+	/**
+	 * Call once the frame's draw calls have been issued.
+	 */
+	public void endFrame() {
+		if(buffer instanceof BufferStorage)
+			((BufferStorage)buffer).nextBuffer();
+	}
+	
+	private void checkBatch(int batch) {
+		if(batch < 0 || batch >= getBatchCount())
+			throw new IllegalArgumentException("Batch " + batch + " is out of bounds.");
+	}
+	
+	public void destroy() {
+		GLState.deleteBuffer(buffer.getName());
+	}
+}
@@ -5,6 +5,9 @@ import static org.lwjgl.opengl.GL30.*;
 
 import java.nio.ByteBuffer;
 
+import com.ra4king.opengl.util.render.GLStats;
+import com.ra4king.opengl.util.render.GLStats.Counter;
+
 /**
  * @author Roi Atalla
  */
@@ -15,13 +18,15 @@ public class MappedBuffer extends GLBuffer {
 	
 	@Override
 	public ByteBuffer bind(int offset, int size) {
-		glBindBuffer(type, name);
+		GLStats.add(Counter.UPLOAD_BYTES, size);
+		
+		bindBuffer();
 		return glMapBufferRange(type, offset, size, GL_MAP_WRITE_BIT | (offset == 0 && size == this.size ? GL_MAP_INVALIDATE_BUFFER_BIT : GL_MAP_INVALIDATE_RANGE_BIT) | GL_MAP_UNSYNCHRONIZED_BIT, null);
 	}
 	
 	@Override
 	public void unbind() {
 		glUnmapBuffer(type);
-		glBindBuffer(type, 0);
+		unbindBuffer();
 	}
 }
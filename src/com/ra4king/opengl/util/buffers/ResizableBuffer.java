@@ -0,0 +1,143 @@
+package com.ra4king.opengl.util.buffers;
+
+import static org.lwjgl.opengl.GL15.*;
+import static org.lwjgl.opengl.GL30.*;
+import static org.lwjgl.opengl.GL31.*;
+
+import java.nio.ByteBuffer;
+
+import com.ra4king.opengl.util.render.GLState;
+import com.ra4king.opengl.util.render.GLStats;
+import com.ra4king.opengl.util.render.GLStats.Counter;
+
+/**
+ * A mapped buffer that grows geometrically whenever bind() is asked for a range past its end. The data store is
+ * re-specified under the same buffer name, so VAOs and other bindings referring to it stay valid, and existing contents
+ * are carried over GPU-side with glCopyBufferSubData.
+ * 
+ * Streaming buffers also shrink: a bind at offset 0 starts a new pass, and if every pass in a window of SHRINK_WINDOW
+ * passes used under a quarter of the buffer, it is halved down toward the peak use, never below the initial size.
+ * 
+ * @author Roi Atalla
+ */
+public class ResizableBuffer extends GLBuffer {
+	private static final int GROWTH_FACTOR = 2;
+	private static final int SHRINK_WINDOW = 120;
+	
+	private final int minSize;
+	
+	private int contentSize;
+	
+	private int passCount;
+	private int passPeak, windowPeak;
+	
+	private int resizeCount;
+	
+	public ResizableBuffer(int type, int initialSize, boolean isStreaming) {
+		super(type, initialSize, isStreaming);
+		
+		minSize = initialSize;
+	}
+	
+	/**
+	 * @return The number of times the data store has been re-specified.
+	 */
+	public int getResizeCount() {
+		return resizeCount;
+	}
+	
+	@Override
+	public ByteBuffer bind(int offset, int size) {
+		if(offset < 0 || size < 0)
+			throw new IllegalArgumentException("offset and size must not be negative.");
+		
+		// summed as long so that a range past Integer.MAX_VALUE is rejected instead of wrapping around
+		long longEnd = (long)offset + size;
+		if(longEnd > Integer.MAX_VALUE)
+			throw new IllegalArgumentException("Range [" + offset + ", " + longEnd + ") is too large.");
+		
+		int end = (int)longEnd;
+		
+		if(isStreaming)
+			trackUse(offset, end);
+		
+		if(end > this.size) {
+			// a buffer created empty must still grow, and doubling past 2^30 must not overflow
+			long newSize = Math.max(this.size, 1);
+			while(newSize < end)
+				newSize *= GROWTH_FACTOR;
+			
+			resize((int)Math.min(newSize, Integer.MAX_VALUE));
+		}
+		
+		if(end > contentSize)
+			contentSize = end;
+		
+		GLStats.add(Counter.UPLOAD_BYTES, size);
+		
+		bindBuffer();
+		
+		int flags = GL_MAP_WRITE_BIT | (offset == 0 && size == this.size ? GL_MAP_INVALIDATE_BUFFER_BIT : GL_MAP_INVALIDATE_RANGE_BIT);
+		return glMapBufferRange(type, offset, size, flags, null);
+	}
+	
+	@Override
+	public void unbind() {
+		glUnmapBuffer(type);
+		unbindBuffer();
+	}
+	
+	private void trackUse(int offset, int end) {
+		if(offset == 0) {
+			windowPeak = Math.max(windowPeak, passPeak);
+			passPeak = 0;
+			
+			if(++passCount == SHRINK_WINDOW) {
+				int newSize = this.size;
+				while(newSize / 2 >= minSize && newSize / 4 >= windowPeak)
+					newSize /= 2;
+				
+				if(newSize != this.size)
+					resize(newSize);
+				
+				passCount = 0;
+				windowPeak = 0;
+			}
+		}
+		
+		passPeak = Math.max(passPeak, end);
+	}
+	
+	private void resize(int newSize) {
+		int copySize = Math.min(contentSize, newSize);
+		int usage = isStreaming ? GL_STREAM_DRAW : GL_STATIC_DRAW;
+		
+		// the element array binding is part of the VAO state, don't modify whichever VAO is currently bound
+		if(type == GL_ELEMENT_ARRAY_BUFFER)
+			GLState.bindVertexArray(0);
+		
+		GLState.bindBuffer(GL_COPY_READ_BUFFER, name);
+		
+		if(copySize == 0) {
+			glBufferData(GL_COPY_READ_BUFFER, newSize, usage);
+		}
+		else {
+			int temp = glGenBuffers();
+			GLState.bindBuffer(GL_COPY_WRITE_BUFFER, temp);
+			glBufferData(GL_COPY_WRITE_BUFFER, copySize, GL_STREAM_COPY);
+			glCopyBufferSubData(GL_COPY_READ_BUFFER, GL_COPY_WRITE_BUFFER, 0, 0, copySize);
+			
+			glBufferData(GL_COPY_READ_BUFFER, newSize, usage);
+			glCopyBufferSubData(GL_COPY_WRITE_BUFFER, GL_COPY_READ_BUFFER, 0, 0, copySize);
+			
+			GLState.bindBuffer(GL_COPY_WRITE_BUFFER, 0);
+			GLState.deleteBuffer(temp);
+		}
+		
+		GLState.bindBuffer(GL_COPY_READ_BUFFER, 0);
+		
+		size = newSize;
+		contentSize = copySize;
+		resizeCount++;
+	}
+}
@@ -1,10 +1,11 @@
 package com.ra4king.opengl.util.loader;
 
+import static org.lwjgl.opengl.GL11.*;
+
 import java.io.IOException;
 import java.io.InputStream;
 import java.net.URL;
 import java.nio.ByteBuffer;
-import java.nio.ByteOrder;
 import java.util.ArrayList;
 import java.util.HashMap;
 
@@ -16,12 +17,20 @@ import org.xmlpull.v1.XmlPullParserFactory;
 import com.ra4king.opengl.util.Mesh;
 import com.ra4king.opengl.util.Mesh.Attribute;
 import com.ra4king.opengl.util.Mesh.RenderCommand;
-import com.ra4king.opengl.util.StringUtil;
+import com.ra4king.opengl.util.buffers.BufferArena;
 
 /**
+ * Numbers are parsed straight from the parser's character buffer and appended to one growing direct buffer for the
+ * vertex data and one for the indices, without building intermediate strings.
+ * 
  * @author Roi Atalla
  */
 public class XMLMeshLoader {
+	private static final int INITIAL_CAPACITY = 4096;
+	
+	// every float with up to 10 decimals and a mantissa below 2^24 is the exact quotient of two floats
+	private static final float[] POWERS_OF_TEN = { 1e0f, 1e1f, 1e2f, 1e3f, 1e4f, 1e5f, 1e6f, 1e7f, 1e8f, 1e9f, 1e10f };
+	
 	private ArrayList<RenderCommand> renderCommands = new ArrayList<>();
 	private ArrayList<Attribute> attributes = new ArrayList<>();
 	private ByteBuffer attributeData, indexData;
@@ -29,7 +38,7 @@ public class XMLMeshLoader {
 	private HashMap<String,ArrayList<Attribute>> renderVariations = new HashMap<>();
 	
 	public XMLMeshLoader(URL url) throws IOException, XMLMeshParseException {
-		attributeData = ByteBuffer.allocate(0).order(ByteOrder.nativeOrder());
+		attributeData = BufferUtils.createByteBuffer(INITIAL_CAPACITY);
 		
 		class VAO {
 			String name;
@@ -74,7 +83,9 @@ public class XMLMeshLoader {
 								xml.next();
 								xml.require(XmlPullParser.TEXT, null, null);
 								
-								attributeData = attrib.storeData(attributeData, StringUtil.clean(StringUtil.split(xml.getText().trim().replace("\r\n", " ").replace('\n', ' '), ' ')));
+								int offset = attributeData.position();
+								int valueCount = parseValues(xml, attrib.getType().dataType == GL_FLOAT, attrib.getType().size, false);
+								attrib.setStorage(offset, valueCount);
 								
 								xml.next();
 								xml.require(XmlPullParser.END_TAG, null, "attribute");
@@ -83,7 +94,7 @@ public class XMLMeshLoader {
 							}
 							case "indices": {
 								if(indexData == null)
-									indexData = ByteBuffer.allocate(0).order(ByteOrder.nativeOrder());
+									indexData = BufferUtils.createByteBuffer(INITIAL_CAPACITY);
 								
 								String primitive = xml.getAttributeValue(null, "cmd");
 								String type = xml.getAttributeValue(null, "type");
@@ -99,7 +110,9 @@ public class XMLMeshLoader {
 								xml.next();
 								xml.require(XmlPullParser.TEXT, null, null);
 								
-								indexData = cmd.storeIndices(indexData, StringUtil.clean(StringUtil.split(xml.getText().trim().replace("\r\n", " ").replace('\n', ' '), ' ')));
+								int start = indexData.position();
+								int indexCount = parseValues(xml, false, cmd.getType().size, true);
+								cmd.setStorage(start, indexCount);
 								
 								xml.next();
 								xml.require(XmlPullParser.END_TAG, null, "indices");
@@ -172,12 +185,9 @@ public class XMLMeshLoader {
 			throw new XMLMeshParseException("There must be at least 1 render command.");
 		
 		attributeData.flip();
-		attributeData = (ByteBuffer)BufferUtils.createByteBuffer(attributeData.remaining()).put(attributeData).flip();
 		
-		if(indexData != null) {
+		if(indexData != null)
 			indexData.flip();
-			indexData = (ByteBuffer)BufferUtils.createByteBuffer(indexData.remaining()).put(indexData).flip();
-		}
 		
 		if(vaos != null) {
 			for(VAO v : vaos) {
@@ -194,6 +204,132 @@ public class XMLMeshLoader {
 		}
 	}
 	
+	/**
+	 * Appends every whitespace separated number of the current TEXT event to the attribute or index data.
+	 * 
+	 * @return The number of values parsed.
+	 */
+	private int parseValues(XmlPullParser xml, boolean isFloat, int size, boolean isIndices) {
+		int[] holder = new int[2];
+		char[] text = xml.getTextCharacters(holder);
+		int end = holder[0] + holder[1];
+		
+		int count = 0;
+		for(int a = holder[0]; a < end;) {
+			if(text[a] <= ' ') {
+				a++;
+				continue;
+			}
+			
+			int tokenEnd = a + 1;
+			while(tokenEnd < end && text[tokenEnd] > ' ')
+				tokenEnd++;
+			
+			ByteBuffer b;
+			if(isIndices)
+				b = indexData = Mesh.ensureRemaining(indexData, size);
+			else
+				b = attributeData = Mesh.ensureRemaining(attributeData, size);
+			
+			if(isFloat)
+				b.putFloat(parseFloat(text, a, tokenEnd));
+			else {
+				long value = parseLong(text, a, tokenEnd);
+				switch(size) {
+					case 1:
+						b.put((byte)value);
+						break;
+					case 2:
+						b.putShort((short)value);
+						break;
+					default:
+						b.putInt((int)value);
+						break;
+				}
+			}
+			
+			count++;
+			a = tokenEnd;
+		}
+		
+		return count;
+	}
+	
+	private static long parseLong(char[] text, int start, int end) {
+		int a = start;
+		boolean negative = text[a] == '-';
+		if(negative || text[a] == '+')
+			a++;
+		
+		// 18 digits can't overflow
+		if(a == end || end - a > 18)
+			return parseLongSlow(text, start, end);
+		
+		long value = 0;
+		for(; a < end; a++) {
+			char c = text[a];
+			if(c < '0' || c > '9')
+				return parseLongSlow(text, start, end);
+			
+			value = value * 10 + (c - '0');
+		}
+		
+		return negative ? -value : value;
+	}
+	
+	private static long parseLongSlow(char[] text, int start, int end) {
+		String s = new String(text, start, end - start);
+		try {
+			return Long.parseLong(s);
+		} catch(NumberFormatException exc) {
+			throw new XMLMeshParseException("Invalid integer: '" + s + "'", exc);
+		}
+	}
+	
+	/**
+	 * Plain decimals with few enough digits are computed exactly, anything else goes through Float.parseFloat.
+	 */
+	private static float parseFloat(char[] text, int start, int end) {
+		int a = start;
+		boolean negative = text[a] == '-';
+		if(negative || text[a] == '+')
+			a++;
+		
+		int mantissa = 0, digits = 0, decimals = 0;
+		boolean hasDot = false;
+		for(; a < end; a++) {
+			char c = text[a];
+			if(c >= '0' && c <= '9') {
+				mantissa = mantissa * 10 + (c - '0');
+				if(mantissa >= 1 << 24)
+					return parseFloatSlow(text, start, end);
+				
+				digits++;
+				if(hasDot)
+					decimals++;
+			}
+			else if(c == '.' && !hasDot)
+				hasDot = true;
+			else
+				return parseFloatSlow(text, start, end);
+		}
+		
+		if(digits == 0 || decimals >= POWERS_OF_TEN.length)
+			return parseFloatSlow(text, start, end);
+		
+		float value = mantissa / POWERS_OF_TEN[decimals];
+		return negative ? -value : value;
+	}
+	
+	private static float parseFloatSlow(char[] text, int start, int end) {
+		String s = new String(text, start, end - start);
+		try {
+			return Float.parseFloat(s);
+		} catch(NumberFormatException exc) {
+			throw new XMLMeshParseException("Invalid float: '" + s + "'", exc);
+		}
+	}
+	
 	public Mesh createDefaultMesh() {
 		return new Mesh(attributeData, attributes, renderCommands, indexData);
 	}
@@ -202,6 +338,17 @@ public class XMLMeshLoader {
 		return new Mesh(attributeData, renderVariations.get(name), renderCommands, indexData);
 	}
 	
+	/**
+	 * The arena's format decides which attributes are used.
+	 */
+	public Mesh createMesh(BufferArena arena) {
+		return new Mesh(arena, attributeData, attributes, renderCommands, indexData);
+	}
+	
+	public ArrayList<Attribute> getAttributes() {
+		return attributes;
+	}
+	
 	public static Mesh createMesh(URL url) throws IOException, XMLMeshParseException {
 		return new XMLMeshLoader(url).createDefaultMesh();
 	}
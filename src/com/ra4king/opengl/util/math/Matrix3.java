@@ -90,6 +90,60 @@ public class Matrix3 {
 		return this;
 	}
 
+	/**
+	 * Sets this matrix to the inverse transpose of the upper 3x3 of m, the matrix used to transform normals.
+	 * Rigid and uniformly scaled transforms skip the inversion entirely.
+	 */
+	public Matrix3 setNormalMatrix(Matrix4 m) {
+		float m00 = m.get(0), m01 = m.get(1), m02 = m.get(2);
+		float m10 = m.get(4), m11 = m.get(5), m12 = m.get(6);
+		float m20 = m.get(8), m21 = m.get(9), m22 = m.get(10);
+
+		float len0 = m00 * m00 + m01 * m01 + m02 * m02;
+		float len1 = m10 * m10 + m11 * m11 + m12 * m12;
+		float len2 = m20 * m20 + m21 * m21 + m22 * m22;
+
+		float dot01 = m00 * m10 + m01 * m11 + m02 * m12;
+		float dot02 = m00 * m20 + m01 * m21 + m02 * m22;
+		float dot12 = m10 * m20 + m11 * m21 + m12 * m22;
+
+		final float epsilon = 1e-5f;
+		float tolerance = epsilon * len0;
+
+		if (Math.abs(dot01) <= tolerance && Math.abs(dot02) <= tolerance && Math.abs(dot12) <= tolerance &&
+		    Math.abs(len0 - len1) <= tolerance && Math.abs(len0 - len2) <= tolerance) {
+			// orthogonal axes of equal length: the inverse transpose of s * R is R / s
+			set4x4(m);
+
+			if (Math.abs(len0 - 1) > epsilon) {
+				mult(1 / len0);
+			}
+
+			return this;
+		}
+
+		// the columns of the inverse transpose are the cross products of the other two columns over the determinant
+		float c00 = m11 * m22 - m12 * m21;
+		float c01 = m12 * m20 - m10 * m22;
+		float c02 = m10 * m21 - m11 * m20;
+
+		float invDet = 1 / (m00 * c00 + m01 * c01 + m02 * c02);
+
+		matrix[0] = c00 * invDet;
+		matrix[1] = c01 * invDet;
+		matrix[2] = c02 * invDet;
+
+		matrix[3] = (m21 * m02 - m22 * m01) * invDet;
+		matrix[4] = (m22 * m00 - m20 * m02) * invDet;
+		matrix[5] = (m20 * m01 - m21 * m00) * invDet;
+
+		matrix[6] = (m01 * m12 - m02 * m11) * invDet;
+		matrix[7] = (m02 * m10 - m00 * m12) * invDet;
+		matrix[8] = (m00 * m11 - m01 * m10) * invDet;
+
+		return this;
+	}
+
 	public Matrix3 mult(float f) {
 		for (int a = 0; a < LENGTH; a++) {
 			put(a, get(a) * f);
@@ -176,4 +230,11 @@ public class Matrix3 {
 		direct.flip();
 		return direct;
 	}
+
+	/**
+	 * Puts this matrix into buffer at its current position, advancing the position.
+	 */
+	public FloatBuffer toBuffer(FloatBuffer buffer) {
+		return buffer.put(matrix);
+	}
 }
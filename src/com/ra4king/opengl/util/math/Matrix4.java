@@ -61,6 +61,33 @@ public class Matrix4 {
 		return clearToPerspective((float)Math.toRadians(fov), width, height, near, far);
 	}
 
+	public Matrix4 clearToTransform(Vector3 translate, Quaternion orient, Vector3 scale) {
+		float x = orient.x(), y = orient.y(), z = orient.z(), w = orient.w();
+		float sx = scale.x(), sy = scale.y(), sz = scale.z();
+
+		matrix[0] = (1 - 2 * y * y - 2 * z * z) * sx;
+		matrix[1] = (2 * x * y + 2 * w * z) * sx;
+		matrix[2] = (2 * x * z - 2 * w * y) * sx;
+		matrix[3] = 0;
+
+		matrix[4] = (2 * x * y - 2 * w * z) * sy;
+		matrix[5] = (1 - 2 * x * x - 2 * z * z) * sy;
+		matrix[6] = (2 * y * z + 2 * w * x) * sy;
+		matrix[7] = 0;
+
+		matrix[8] = (2 * x * z + 2 * w * y) * sz;
+		matrix[9] = (2 * y * z - 2 * w * x) * sz;
+		matrix[10] = (1 - 2 * x * x - 2 * y * y) * sz;
+		matrix[11] = 0;
+
+		matrix[12] = translate.x();
+		matrix[13] = translate.y();
+		matrix[14] = translate.z();
+		matrix[15] = 1;
+
+		return this;
+	}
+
 	public float get(int index) {
 		return matrix[index];
 	}
@@ -69,6 +96,19 @@ public class Matrix4 {
 		return matrix[col * 4 + row];
 	}
 
+	/**
+	 * Compares every element with ==. Not an override of equals(Object), Matrix4 is mutable.
+	 */
+	public boolean equalsExact(Matrix4 m) {
+		for (int a = 0; a < LENGTH; a++) {
+			if (matrix[a] != m.matrix[a]) {
+				return false;
+			}
+		}
+
+		return true;
+	}
+
 	public Vector4 getColumn(int index, Vector4 result) {
 		return result.set(get(index, 0), get(index, 1), get(index, 2), get(index, 3));
 	}
@@ -146,22 +186,94 @@ public class Matrix4 {
 			throw new IllegalArgumentException("float array must have at least " + LENGTH + " values.");
 		}
 
-		return mult(new Matrix4(m));
+		float a00 = matrix[0], a01 = matrix[1], a02 = matrix[2], a03 = matrix[3];
+		float a10 = matrix[4], a11 = matrix[5], a12 = matrix[6], a13 = matrix[7];
+		float a20 = matrix[8], a21 = matrix[9], a22 = matrix[10], a23 = matrix[11];
+		float a30 = matrix[12], a31 = matrix[13], a32 = matrix[14], a33 = matrix[15];
+
+		float b0 = m[0], b1 = m[1], b2 = m[2], b3 = m[3];
+		matrix[0] = a00 * b0 + a10 * b1 + a20 * b2 + a30 * b3;
+		matrix[1] = a01 * b0 + a11 * b1 + a21 * b2 + a31 * b3;
+		matrix[2] = a02 * b0 + a12 * b1 + a22 * b2 + a32 * b3;
+		matrix[3] = a03 * b0 + a13 * b1 + a23 * b2 + a33 * b3;
+
+		b0 = m[4];
+		b1 = m[5];
+		b2 = m[6];
+		b3 = m[7];
+		matrix[4] = a00 * b0 + a10 * b1 + a20 * b2 + a30 * b3;
+		matrix[5] = a01 * b0 + a11 * b1 + a21 * b2 + a31 * b3;
+		matrix[6] = a02 * b0 + a12 * b1 + a22 * b2 + a32 * b3;
+		matrix[7] = a03 * b0 + a13 * b1 + a23 * b2 + a33 * b3;
+
+		b0 = m[8];
+		b1 = m[9];
+		b2 = m[10];
+		b3 = m[11];
+		matrix[8] = a00 * b0 + a10 * b1 + a20 * b2 + a30 * b3;
+		matrix[9] = a01 * b0 + a11 * b1 + a21 * b2 + a31 * b3;
+		matrix[10] = a02 * b0 + a12 * b1 + a22 * b2 + a32 * b3;
+		matrix[11] = a03 * b0 + a13 * b1 + a23 * b2 + a33 * b3;
+
+		b0 = m[12];
+		b1 = m[13];
+		b2 = m[14];
+		b3 = m[15];
+		matrix[12] = a00 * b0 + a10 * b1 + a20 * b2 + a30 * b3;
+		matrix[13] = a01 * b0 + a11 * b1 + a21 * b2 + a31 * b3;
+		matrix[14] = a02 * b0 + a12 * b1 + a22 * b2 + a32 * b3;
+		matrix[15] = a03 * b0 + a13 * b1 + a23 * b2 + a33 * b3;
+
+		return this;
 	}
 
 	public Matrix4 mult(Matrix4 m) {
-		Matrix4 temp = new Matrix4();
-
-		for (int a = 0; a < 4; a++) {
-			temp.put(a, 0, get(0) * m.get(a, 0) + get(4) * m.get(a, 1) + get(8) * m.get(a, 2) + get(12) * m.get(a, 3));
-			temp.put(a, 1, get(1) * m.get(a, 0) + get(5) * m.get(a, 1) + get(9) * m.get(a, 2) + get(13) * m.get(a, 3));
-			temp.put(a, 2, get(2) * m.get(a, 0) + get(6) * m.get(a, 1) + get(10) * m.get(a, 2) + get(14) * m.get(a,
-			                                                                                                     3));
-			temp.put(a, 3, get(3) * m.get(a, 0) + get(7) * m.get(a, 1) + get(11) * m.get(a, 2) + get(15) * m.get(a,
-			                                                                                                     3));
-		}
+		return mult(m.matrix);
+	}
+
+	/**
+	 * Multiplies this matrix by m, assuming both only hold rotation, scale and translation (the bottom row is 0, 0, 0, 1).
+	 * Cheaper than {@link #mult(Matrix4)} and suitable for composing model transforms.
+	 */
+	public Matrix4 multAffine(Matrix4 m) {
+		float[] b = m.matrix;
+
+		float a00 = matrix[0], a01 = matrix[1], a02 = matrix[2];
+		float a10 = matrix[4], a11 = matrix[5], a12 = matrix[6];
+		float a20 = matrix[8], a21 = matrix[9], a22 = matrix[10];
+		float a30 = matrix[12], a31 = matrix[13], a32 = matrix[14];
+
+		float b0 = b[0], b1 = b[1], b2 = b[2];
+		matrix[0] = a00 * b0 + a10 * b1 + a20 * b2;
+		matrix[1] = a01 * b0 + a11 * b1 + a21 * b2;
+		matrix[2] = a02 * b0 + a12 * b1 + a22 * b2;
+		matrix[3] = 0;
+
+		b0 = b[4];
+		b1 = b[5];
+		b2 = b[6];
+		matrix[4] = a00 * b0 + a10 * b1 + a20 * b2;
+		matrix[5] = a01 * b0 + a11 * b1 + a21 * b2;
+		matrix[6] = a02 * b0 + a12 * b1 + a22 * b2;
+		matrix[7] = 0;
+
+		b0 = b[8];
+		b1 = b[9];
+		b2 = b[10];
+		matrix[8] = a00 * b0 + a10 * b1 + a20 * b2;
+		matrix[9] = a01 * b0 + a11 * b1 + a21 * b2;
+		matrix[10] = a02 * b0 + a12 * b1 + a22 * b2;
+		matrix[11] = 0;
+
+		b0 = b[12];
+		b1 = b[13];
+		b2 = b[14];
+		matrix[12] = a00 * b0 + a10 * b1 + a20 * b2 + a30;
+		matrix[13] = a01 * b0 + a11 * b1 + a21 * b2 + a31;
+		matrix[14] = a02 * b0 + a12 * b1 + a22 * b2 + a32;
+		matrix[15] = 1;
 
-		return set(temp);
+		return this;
 	}
 
 	public Vector3 mult3(Vector3 vec, float w, Vector3 result) {
@@ -204,37 +316,57 @@ public class Matrix4 {
 	}
 
 	public Matrix4 translate(float x, float y, float z) {
-		Matrix4 temp = new Matrix4();
-
-		temp.put(0, 1);
-		temp.put(5, 1);
-		temp.put(10, 1);
-		temp.put(15, 1);
-
-		temp.put(12, x);
-		temp.put(13, y);
-		temp.put(14, z);
+		matrix[12] += matrix[0] * x + matrix[4] * y + matrix[8] * z;
+		matrix[13] += matrix[1] * x + matrix[5] * y + matrix[9] * z;
+		matrix[14] += matrix[2] * x + matrix[6] * y + matrix[10] * z;
+		matrix[15] += matrix[3] * x + matrix[7] * y + matrix[11] * z;
 
-		return mult(temp);
+		return this;
 	}
 
 	public Matrix4 translate(Vector3 vec) {
 		return translate(vec.x(), vec.y(), vec.z());
 	}
 
+	/**
+	 * Pre-multiplies this matrix by a translation, i.e. the translation is applied after this transform.
+	 */
+	public Matrix4 translateLocal(float x, float y, float z) {
+		for (int a = 0; a < LENGTH; a += 4) {
+			float w = matrix[a + 3];
+			matrix[a] += x * w;
+			matrix[a + 1] += y * w;
+			matrix[a + 2] += z * w;
+		}
+
+		return this;
+	}
+
+	public Matrix4 translateLocal(Vector3 vec) {
+		return translateLocal(vec.x(), vec.y(), vec.z());
+	}
+
 	public Matrix4 scale(float f) {
 		return scale(f, f, f);
 	}
 
 	public Matrix4 scale(float x, float y, float z) {
-		Matrix4 temp = new Matrix4();
+		matrix[0] *= x;
+		matrix[1] *= x;
+		matrix[2] *= x;
+		matrix[3] *= x;
 
-		temp.put(0, x);
-		temp.put(5, y);
-		temp.put(10, z);
-		temp.put(15, 1);
+		matrix[4] *= y;
+		matrix[5] *= y;
+		matrix[6] *= y;
+		matrix[7] *= y;
 
-		return mult(temp);
+		matrix[8] *= z;
+		matrix[9] *= z;
+		matrix[10] *= z;
+		matrix[11] *= z;
+
+		return this;
 	}
 
 	public Matrix4 scale(Vector3 vec) {
@@ -251,23 +383,38 @@ public class Matrix4 {
 		y /= len;
 		z /= len;
 
-		Matrix4 temp = new Matrix4();
+		float r00 = x * x * oneMinusCos + cos;
+		float r01 = y * x * oneMinusCos + z * sin;
+		float r02 = z * x * oneMinusCos - y * sin;
+
+		float r10 = x * y * oneMinusCos - z * sin;
+		float r11 = y * y * oneMinusCos + cos;
+		float r12 = z * y * oneMinusCos + x * sin;
+
+		float r20 = x * z * oneMinusCos + y * sin;
+		float r21 = y * z * oneMinusCos - x * sin;
+		float r22 = z * z * oneMinusCos + cos;
 
-		temp.put(0, x * x * oneMinusCos + cos);
-		temp.put(4, x * y * oneMinusCos - z * sin);
-		temp.put(8, x * z * oneMinusCos + y * sin);
+		float a00 = matrix[0], a01 = matrix[1], a02 = matrix[2], a03 = matrix[3];
+		float a10 = matrix[4], a11 = matrix[5], a12 = matrix[6], a13 = matrix[7];
+		float a20 = matrix[8], a21 = matrix[9], a22 = matrix[10], a23 = matrix[11];
 
-		temp.put(1, y * x * oneMinusCos + z * sin);
-		temp.put(5, y * y * oneMinusCos + cos);
-		temp.put(9, y * z * oneMinusCos - x * sin);
+		matrix[0] = a00 * r00 + a10 * r01 + a20 * r02;
+		matrix[1] = a01 * r00 + a11 * r01 + a21 * r02;
+		matrix[2] = a02 * r00 + a12 * r01 + a22 * r02;
+		matrix[3] = a03 * r00 + a13 * r01 + a23 * r02;
 
-		temp.put(2, z * x * oneMinusCos - y * sin);
-		temp.put(6, z * y * oneMinusCos + x * sin);
-		temp.put(10, z * z * oneMinusCos + cos);
+		matrix[4] = a00 * r10 + a10 * r11 + a20 * r12;
+		matrix[5] = a01 * r10 + a11 * r11 + a21 * r12;
+		matrix[6] = a02 * r10 + a12 * r11 + a22 * r12;
+		matrix[7] = a03 * r10 + a13 * r11 + a23 * r12;
 
-		temp.put(15, 1);
+		matrix[8] = a00 * r20 + a10 * r21 + a20 * r22;
+		matrix[9] = a01 * r20 + a11 * r21 + a21 * r22;
+		matrix[10] = a02 * r20 + a12 * r21 + a22 * r22;
+		matrix[11] = a03 * r20 + a13 * r21 + a23 * r22;
 
-		return mult(temp);
+		return this;
 	}
 
 	public Matrix4 rotate(float angle, Vector3 vec) {
@@ -420,4 +567,11 @@ public class Matrix4 {
 		direct.flip();
 		return direct;
 	}
+
+	/**
+	 * Puts this matrix into buffer at its current position, advancing the position.
+	 */
+	public FloatBuffer toBuffer(FloatBuffer buffer) {
+		return buffer.put(matrix);
+	}
 }
@@ -0,0 +1,357 @@
+package com.ra4king.opengl.util.render;
+
+import static org.lwjgl.opengl.GL11.*;
+import static org.lwjgl.opengl.GL15.*;
+import static org.lwjgl.opengl.GL20.*;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.util.ArrayList;
+
+import org.lwjgl.BufferUtils;
+import org.lwjgl.opengl.GL32;
+
+import com.ra4king.opengl.util.math.Matrix3;
+import com.ra4king.opengl.util.math.Matrix4;
+import com.ra4king.opengl.util.render.GLStats.Counter;
+
+/**
+ * Records binds, uniform values, buffer uploads and draw calls into an off-heap list that is replayed later, in order,
+ * on the GL thread. Recording makes no GL calls, so any thread may record into a list it owns while the GL thread
+ * renders. Object names such as programs, buffers and VAOs must already exist when recording.
+ *
+ * Binds are replayed through GLState, so redundant ones are still filtered. Uniforms are replayed with plain glUniform
+ * calls, so the ShaderProgram they were set on must have its shadowed values invalidated afterwards, for example by
+ * recording its invalidateUniforms through execute().
+ *
+ * @author Roi Atalla
+ */
+public class CommandList {
+	private static final int USE_PROGRAM = 0;
+	private static final int BIND_VERTEX_ARRAY = 1;
+	private static final int BIND_BUFFER = 2;
+	private static final int BIND_TEXTURE = 3;
+	private static final int BIND_SAMPLER = 4;
+	private static final int BIND_BUFFER_RANGE = 5;
+	private static final int UNIFORM_1I = 6;
+	private static final int UNIFORM_1F = 7;
+	private static final int UNIFORM_4F = 8;
+	private static final int UNIFORM_MATRIX3 = 9;
+	private static final int UNIFORM_MATRIX4 = 10;
+	private static final int BUFFER_DATA = 11;
+	private static final int ENABLE_ATTRIB = 12;
+	private static final int DISABLE_ATTRIB = 13;
+	private static final int ATTRIB_POINTER = 14;
+	private static final int ATTRIB_DIVISOR = 15;
+	private static final int DRAW_ARRAYS = 16;
+	private static final int DRAW_ELEMENTS = 17;
+	private static final int EXECUTE = 18;
+
+	private ByteBuffer commands;
+	private final ArrayList<Runnable> callbacks = new ArrayList<>();
+
+	public CommandList() {
+		this(4096);
+	}
+
+	public CommandList(int initialBytes) {
+		commands = BufferUtils.createByteBuffer(initialBytes);
+	}
+
+	/**
+	 * Discards all recorded commands.
+	 */
+	public void reset() {
+		commands.clear();
+		callbacks.clear();
+	}
+
+	public boolean isEmpty() {
+		return commands.position() == 0;
+	}
+
+	/**
+	 * @return The number of bytes recorded.
+	 */
+	public int size() {
+		return commands.position();
+	}
+
+	private void ensureCapacity(int bytes) {
+		if(commands.remaining() < bytes) {
+			ByteBuffer newCommands = BufferUtils.createByteBuffer(Math.max(commands.capacity() * 2, commands.position() + bytes));
+			commands.flip();
+			newCommands.put(commands);
+			commands = newCommands;
+		}
+	}
+
+	public void useProgram(int program) {
+		ensureCapacity(8);
+		commands.putInt(USE_PROGRAM).putInt(program);
+	}
+
+	public void bindVertexArray(int vao) {
+		ensureCapacity(8);
+		commands.putInt(BIND_VERTEX_ARRAY).putInt(vao);
+	}
+
+	public void bindBuffer(int target, int buffer) {
+		ensureCapacity(12);
+		commands.putInt(BIND_BUFFER).putInt(target).putInt(buffer);
+	}
+
+	public void bindTexture(int unit, int target, int texture) {
+		ensureCapacity(16);
+		commands.putInt(BIND_TEXTURE).putInt(unit).putInt(target).putInt(texture);
+	}
+
+	public void bindSampler(int unit, int sampler) {
+		ensureCapacity(12);
+		commands.putInt(BIND_SAMPLER).putInt(unit).putInt(sampler);
+	}
+
+	/**
+	 * A size of -1 binds the whole buffer with glBindBufferBase.
+	 */
+	public void bindBufferRange(int target, int index, int buffer, long offset, long size) {
+		ensureCapacity(32);
+		commands.putInt(BIND_BUFFER_RANGE).putInt(target).putInt(index).putInt(buffer).putLong(offset).putLong(size);
+	}
+
+	public void uniform1i(int location, int value) {
+		ensureCapacity(12);
+		commands.putInt(UNIFORM_1I).putInt(location).putInt(value);
+	}
+
+	public void uniform1f(int location, float value) {
+		ensureCapacity(12);
+		commands.putInt(UNIFORM_1F).putInt(location).putFloat(value);
+	}
+
+	public void uniform4f(int location, float x, float y, float z, float w) {
+		ensureCapacity(24);
+		commands.putInt(UNIFORM_4F).putInt(location).putFloat(x).putFloat(y).putFloat(z).putFloat(w);
+	}
+
+	public void uniformMatrix3(int location, Matrix3 matrix) {
+		ensureCapacity(8 + Matrix3.LENGTH * 4);
+		commands.putInt(UNIFORM_MATRIX3).putInt(location);
+		for(int a = 0; a < Matrix3.LENGTH; a++)
+			commands.putFloat(matrix.get(a));
+	}
+
+	public void uniformMatrix4(int location, Matrix4 matrix) {
+		ensureCapacity(8 + Matrix4.LENGTH * 4);
+		commands.putInt(UNIFORM_MATRIX4).putInt(location);
+		for(int a = 0; a < Matrix4.LENGTH; a++)
+			commands.putFloat(matrix.get(a));
+	}
+
+	/**
+	 * Reserves space for floatCount floats that are uploaded with glBufferData when replayed, after binding buffer to
+	 * target. Write the data into the returned buffer before recording anything else into this list.
+	 */
+	public FloatBuffer bufferData(int target, int buffer, int usage, int floatCount) {
+		ensureCapacity(20 + floatCount * 4);
+		commands.putInt(BUFFER_DATA).putInt(target).putInt(buffer).putInt(usage).putInt(floatCount * 4);
+
+		ByteBuffer data = commands.slice().order(ByteOrder.nativeOrder());
+		data.limit(floatCount * 4);
+		commands.position(commands.position() + floatCount * 4);
+
+		return data.asFloatBuffer();
+	}
+
+	public void enableVertexAttribArray(int index) {
+		ensureCapacity(8);
+		commands.putInt(ENABLE_ATTRIB).putInt(index);
+	}
+
+	public void disableVertexAttribArray(int index) {
+		ensureCapacity(8);
+		commands.putInt(DISABLE_ATTRIB).putInt(index);
+	}
+
+	public void vertexAttribPointer(int index, int size, int type, boolean normalized, int stride, long offset) {
+		ensureCapacity(32);
+		commands.putInt(ATTRIB_POINTER).putInt(index).putInt(size).putInt(type).putInt(normalized ? 1 : 0).putInt(stride).putLong(offset);
+	}
+
+	public void vertexAttribDivisor(int index, int divisor) {
+		ensureCapacity(12);
+		commands.putInt(ATTRIB_DIVISOR).putInt(index).putInt(divisor);
+	}
+
+	public void drawArrays(int mode, int first, int count, int instanceCount) {
+		ensureCapacity(20);
+		commands.putInt(DRAW_ARRAYS).putInt(mode).putInt(first).putInt(count).putInt(instanceCount);
+	}
+
+	/**
+	 * @param offset The byte offset into the element array buffer.
+	 */
+	public void drawElements(int mode, int count, int type, long offset, int instanceCount, int baseVertex) {
+		ensureCapacity(32);
+		commands.putInt(DRAW_ELEMENTS).putInt(mode).putInt(count).putInt(type).putLong(offset).putInt(instanceCount).putInt(baseVertex);
+	}
+
+	/**
+	 * Records a call made on the GL thread at this point of the replay, for work that has no command of its own.
+	 */
+	public void execute(Runnable callback) {
+		ensureCapacity(8);
+		commands.putInt(EXECUTE).putInt(callbacks.size());
+		callbacks.add(callback);
+	}
+
+	/**
+	 * Issues all recorded commands. Must be called on the GL thread. The list is left intact and may be replayed again.
+	 */
+	public void replay() {
+		int end = commands.position();
+
+		ByteBuffer data = commands.duplicate().order(ByteOrder.nativeOrder());
+		data.clear();
+		FloatBuffer floats = data.asFloatBuffer();
+
+		int p = 0;
+		while(p < end) {
+			int op = commands.getInt(p);
+
+			switch(op) {
+				case USE_PROGRAM:
+					GLState.useProgram(commands.getInt(p + 4));
+					p += 8;
+					break;
+				case BIND_VERTEX_ARRAY:
+					GLState.bindVertexArray(commands.getInt(p + 4));
+					p += 8;
+					break;
+				case BIND_BUFFER:
+					GLState.bindBuffer(commands.getInt(p + 4), commands.getInt(p + 8));
+					p += 12;
+					break;
+				case BIND_TEXTURE:
+					GLState.bindTexture(commands.getInt(p + 4), commands.getInt(p + 8), commands.getInt(p + 12));
+					p += 16;
+					break;
+				case BIND_SAMPLER:
+					GLState.bindSampler(commands.getInt(p + 4), commands.getInt(p + 8));
+					p += 12;
+					break;
+				case BIND_BUFFER_RANGE: {
+					long size = commands.getLong(p + 24);
+					if(size == -1)
+						GLState.bindBufferBase(commands.getInt(p + 4), commands.getInt(p + 8), commands.getInt(p + 12));
+					else
+						GLState.bindBufferRange(commands.getInt(p + 4), commands.getInt(p + 8), commands.getInt(p + 12), commands.getLong(p + 16), size);
+					p += 32;
+					break;
+				}
+				case UNIFORM_1I:
+					glUniform1i(commands.getInt(p + 4), commands.getInt(p + 8));
+					GLStats.increment(Counter.UNIFORM_UPDATES);
+					p += 12;
+					break;
+				case UNIFORM_1F:
+					glUniform1f(commands.getInt(p + 4), commands.getFloat(p + 8));
+					GLStats.increment(Counter.UNIFORM_UPDATES);
+					p += 12;
+					break;
+				case UNIFORM_4F:
+					glUniform4f(commands.getInt(p + 4), commands.getFloat(p + 8), commands.getFloat(p + 12), commands.getFloat(p + 16), commands.getFloat(p + 20));
+					GLStats.increment(Counter.UNIFORM_UPDATES);
+					p += 24;
+					break;
+				case UNIFORM_MATRIX3:
+					floats.limit((p + 8) / 4 + Matrix3.LENGTH).position((p + 8) / 4);
+					glUniformMatrix3(commands.getInt(p + 4), false, floats);
+					GLStats.increment(Counter.UNIFORM_UPDATES);
+					p += 8 + Matrix3.LENGTH * 4;
+					break;
+				case UNIFORM_MATRIX4:
+					floats.limit((p + 8) / 4 + Matrix4.LENGTH).position((p + 8) / 4);
+					glUniformMatrix4(commands.getInt(p + 4), false, floats);
+					GLStats.increment(Counter.UNIFORM_UPDATES);
+					p += 8 + Matrix4.LENGTH * 4;
+					break;
+				case BUFFER_DATA: {
+					int target = commands.getInt(p + 4);
+					int bytes = commands.getInt(p + 16);
+
+					GLState.bindBuffer(target, commands.getInt(p + 8));
+
+					data.limit(p + 20 + bytes).position(p + 20);
+					glBufferData(target, data, commands.getInt(p + 12));
+					GLStats.add(Counter.UPLOAD_BYTES, bytes);
+
+					p += 20 + bytes;
+					break;
+				}
+				case ENABLE_ATTRIB:
+					glEnableVertexAttribArray(commands.getInt(p + 4));
+					p += 8;
+					break;
+				case DISABLE_ATTRIB:
+					glDisableVertexAttribArray(commands.getInt(p + 4));
+					p += 8;
+					break;
+				case ATTRIB_POINTER:
+					glVertexAttribPointer(commands.getInt(p + 4), commands.getInt(p + 8), commands.getInt(p + 12), commands.getInt(p + 16) != 0,
+					                      commands.getInt(p + 20), commands.getLong(p + 24));
+					p += 32;
+					break;
+				case ATTRIB_DIVISOR:
+					RenderUtils.glVertexAttribDivisor(commands.getInt(p + 4), commands.getInt(p + 8));
+					p += 12;
+					break;
+				case DRAW_ARRAYS: {
+					int mode = commands.getInt(p + 4);
+					int first = commands.getInt(p + 8);
+					int count = commands.getInt(p + 12);
+					int instanceCount = commands.getInt(p + 16);
+
+					if(instanceCount == 1)
+						glDrawArrays(mode, first, count);
+					else
+						RenderUtils.glDrawArraysInstanced(mode, first, count, instanceCount);
+
+					GLStats.increment(Counter.DRAW_CALLS);
+					GLStats.add(Counter.DRAWS, instanceCount);
+
+					p += 20;
+					break;
+				}
+				case DRAW_ELEMENTS: {
+					int mode = commands.getInt(p + 4);
+					int count = commands.getInt(p + 8);
+					int type = commands.getInt(p + 12);
+					long offset = commands.getLong(p + 16);
+					int instanceCount = commands.getInt(p + 24);
+					int baseVertex = commands.getInt(p + 28);
+
+					if(baseVertex != 0)
+						GL32.glDrawElementsInstancedBaseVertex(mode, count, type, offset, instanceCount, baseVertex);
+					else if(instanceCount == 1)
+						glDrawElements(mode, count, type, offset);
+					else
+						RenderUtils.glDrawElementsInstanced(mode, count, type, offset, instanceCount);
+
+					GLStats.increment(Counter.DRAW_CALLS);
+					GLStats.add(Counter.DRAWS, instanceCount);
+
+					p += 32;
+					break;
+				}
+				case EXECUTE:
+					callbacks.get(commands.getInt(p + 4)).run();
+					p += 8;
+					break;
+				default:
+					throw new IllegalStateException("Corrupt command list: unknown command " + op + " at " + p);
+			}
+		}
+	}
+}
@@ -0,0 +1,281 @@
+package com.ra4king.opengl.util.render;
+
+import static org.lwjgl.opengl.GL11.*;
+import static org.lwjgl.opengl.GL15.*;
+import static org.lwjgl.opengl.GL40.*;
+
+import java.nio.IntBuffer;
+
+import org.lwjgl.BufferUtils;
+import org.lwjgl.opengl.ContextCapabilities;
+import org.lwjgl.opengl.GL14;
+import org.lwjgl.opengl.GL32;
+import org.lwjgl.opengl.GL43;
+import org.lwjgl.opengl.GLContext;
+
+import com.ra4king.opengl.util.render.GLStats.Counter;
+
+/**
+ * A list of draw commands that all source their vertices from the same VAO, submitted with one
+ * glMultiDraw*Indirect call per run of consecutive commands that share a primitive and index type.
+ *
+ * Commands are stored in the DrawElementsIndirectCommand layout. Array commands use the same 5 int stride with the last
+ * int unused.
+ *
+ * When indirect drawing is not supported, array commands fall back to glMultiDrawArrays and indexed commands to one
+ * draw call each.
+ *
+ * @author Roi Atalla
+ */
+public class DrawCommandBuffer {
+	public static final boolean HAS_INDIRECT;
+
+	private static final int COMMAND_INTS = 5;
+	private static final int COMMAND_STRIDE = COMMAND_INTS * 4;
+
+	private static final int ARRAYS = 0;
+
+	static {
+		ContextCapabilities caps = GLContext.getCapabilities();
+		HAS_INDIRECT = caps.OpenGL43 || caps.GL_ARB_multi_draw_indirect;
+	}
+
+	private final boolean isStreaming;
+
+	private IntBuffer commands;
+	private int[] primitives;
+	private int[] indexTypes;
+	private int size;
+
+	private int indirectBuffer;
+	private boolean isDirty;
+
+	private IntBuffer multiFirst, multiCount;
+
+	/**
+	 * @param isStreaming Whether the commands will be rebuilt every frame. Static command lists are uploaded only once.
+	 */
+	public DrawCommandBuffer(boolean isStreaming) {
+		this(isStreaming, 16);
+	}
+
+	public DrawCommandBuffer(boolean isStreaming, int initialCapacity) {
+		this.isStreaming = isStreaming;
+
+		commands = BufferUtils.createIntBuffer(initialCapacity * COMMAND_INTS);
+		primitives = new int[initialCapacity];
+		indexTypes = new int[initialCapacity];
+	}
+
+	public int size() {
+		return size;
+	}
+
+	public void clear() {
+		size = 0;
+		isDirty = true;
+	}
+
+	/**
+	 * @param firstIndex The offset into the element array buffer in indices, not bytes.
+	 */
+	public void addElements(int primitive, int indexType, int count, int firstIndex, int baseVertex, int instanceCount, int baseInstance) {
+		int index = reserve();
+		primitives[index] = primitive;
+		indexTypes[index] = indexType;
+
+		int offset = index * COMMAND_INTS;
+		commands.put(offset, count);
+		commands.put(offset + 1, instanceCount);
+		commands.put(offset + 2, firstIndex);
+		commands.put(offset + 3, baseVertex);
+		commands.put(offset + 4, baseInstance);
+	}
+
+	public void addArrays(int primitive, int first, int count, int instanceCount, int baseInstance) {
+		int index = reserve();
+		primitives[index] = primitive;
+		indexTypes[index] = ARRAYS;
+
+		int offset = index * COMMAND_INTS;
+		commands.put(offset, count);
+		commands.put(offset + 1, instanceCount);
+		commands.put(offset + 2, first);
+		commands.put(offset + 3, baseInstance);
+		commands.put(offset + 4, 0);
+	}
+
+	private int reserve() {
+		if(size == primitives.length) {
+			int capacity = primitives.length * 2;
+
+			IntBuffer newCommands = BufferUtils.createIntBuffer(capacity * COMMAND_INTS);
+			commands.clear();
+			newCommands.put(commands).clear();
+			commands = newCommands;
+
+			int[] newPrimitives = new int[capacity];
+			System.arraycopy(primitives, 0, newPrimitives, 0, size);
+			primitives = newPrimitives;
+
+			int[] newIndexTypes = new int[capacity];
+			System.arraycopy(indexTypes, 0, newIndexTypes, 0, size);
+			indexTypes = newIndexTypes;
+		}
+
+		isDirty = true;
+		return size++;
+	}
+
+	/**
+	 * Draws all commands. The VAO they source from must already be bound.
+	 */
+	public void submit() {
+		if(size == 0)
+			return;
+
+		if(HAS_INDIRECT)
+			submitIndirect();
+		else
+			submitDirect();
+	}
+
+	private void submitIndirect() {
+		if(indirectBuffer == 0)
+			indirectBuffer = glGenBuffers();
+
+		GLState.bindBuffer(GL_DRAW_INDIRECT_BUFFER, indirectBuffer);
+
+		if(isDirty) {
+			commands.limit(size * COMMAND_INTS).position(0);
+			glBufferData(GL_DRAW_INDIRECT_BUFFER, commands, isStreaming ? GL_STREAM_DRAW : GL_STATIC_DRAW);
+			GLStats.add(Counter.UPLOAD_BYTES, size * COMMAND_STRIDE);
+			commands.clear();
+
+			isDirty = false;
+		}
+
+		int start = 0;
+		while(start < size) {
+			int end = findRunEnd(start);
+
+			if(indexTypes[start] == ARRAYS)
+				GL43.glMultiDrawArraysIndirect(primitives[start], (long)start * COMMAND_STRIDE, end - start, COMMAND_STRIDE);
+			else
+				GL43.glMultiDrawElementsIndirect(primitives[start], indexTypes[start], (long)start * COMMAND_STRIDE, end - start, COMMAND_STRIDE);
+
+			GLStats.increment(Counter.DRAW_CALLS);
+			countDraws(start, end);
+
+			start = end;
+		}
+	}
+
+	private void submitDirect() {
+		int start = 0;
+		while(start < size) {
+			int end = findRunEnd(start);
+
+			if(indexTypes[start] == ARRAYS && canMultiDrawArrays(start, end)) {
+				if(multiFirst == null || multiFirst.capacity() < end - start) {
+					multiFirst = BufferUtils.createIntBuffer(primitives.length);
+					multiCount = BufferUtils.createIntBuffer(primitives.length);
+				}
+
+				multiFirst.clear();
+				multiCount.clear();
+				for(int a = start; a < end; a++) {
+					multiCount.put(commands.get(a * COMMAND_INTS));
+					multiFirst.put(commands.get(a * COMMAND_INTS + 2));
+				}
+				multiFirst.flip();
+				multiCount.flip();
+
+				GL14.glMultiDrawArrays(primitives[start], multiFirst, multiCount);
+
+				GLStats.increment(Counter.DRAW_CALLS);
+				countDraws(start, end);
+			}
+			else {
+				for(int a = start; a < end; a++)
+					drawDirect(a);
+			}
+
+			start = end;
+		}
+	}
+
+	private void countDraws(int start, int end) {
+		for(int a = start; a < end; a++)
+			GLStats.add(Counter.DRAWS, commands.get(a * COMMAND_INTS + 1));
+	}
+
+	private boolean canMultiDrawArrays(int start, int end) {
+		for(int a = start; a < end; a++)
+			if(commands.get(a * COMMAND_INTS + 1) != 1 || commands.get(a * COMMAND_INTS + 3) != 0)
+				return false;
+
+		return true;
+	}
+
+	private void drawDirect(int index) {
+		GLStats.increment(Counter.DRAW_CALLS);
+		countDraws(index, index + 1);
+
+		int offset = index * COMMAND_INTS;
+		int count = commands.get(offset);
+		int instanceCount = commands.get(offset + 1);
+		int first = commands.get(offset + 2);
+
+		if(indexTypes[index] == ARRAYS) {
+			if(instanceCount == 1)
+				glDrawArrays(primitives[index], first, count);
+			else
+				RenderUtils.glDrawArraysInstanced(primitives[index], first, count, instanceCount);
+
+			return;
+		}
+
+		int baseVertex = commands.get(offset + 3);
+		long byteOffset = (long)first * getIndexSize(indexTypes[index]);
+
+		if(baseVertex != 0) {
+			if(instanceCount == 1)
+				GL32.glDrawElementsBaseVertex(primitives[index], count, indexTypes[index], byteOffset, baseVertex);
+			else
+				GL32.glDrawElementsInstancedBaseVertex(primitives[index], count, indexTypes[index], byteOffset, instanceCount, baseVertex);
+		}
+		else if(instanceCount == 1)
+			glDrawElements(primitives[index], count, indexTypes[index], byteOffset);
+		else
+			RenderUtils.glDrawElementsInstanced(primitives[index], count, indexTypes[index], byteOffset, instanceCount);
+	}
+
+	private int findRunEnd(int start) {
+		int end = start + 1;
+		while(end < size && primitives[end] == primitives[start] && indexTypes[end] == indexTypes[start])
+			end++;
+
+		return end;
+	}
+
+	private static int getIndexSize(int indexType) {
+		switch(indexType) {
+			case GL_UNSIGNED_BYTE:
+				return 1;
+			case GL_UNSIGNED_SHORT:
+				return 2;
+			case GL_UNSIGNED_INT:
+				return 4;
+			default:
+				throw new IllegalArgumentException("Invalid index type: " + indexType);
+		}
+	}
+
+	public void destroy() {
+		if(indirectBuffer != 0) {
+			GLState.deleteBuffer(indirectBuffer);
+			indirectBuffer = 0;
+		}
+	}
+}
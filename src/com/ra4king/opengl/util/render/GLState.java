@@ -0,0 +1,287 @@
+package com.ra4king.opengl.util.render;
+
+import static org.lwjgl.opengl.GL11.*;
+import static org.lwjgl.opengl.GL13.*;
+import static org.lwjgl.opengl.GL15.*;
+import static org.lwjgl.opengl.GL20.*;
+import static org.lwjgl.opengl.GL30.*;
+import static org.lwjgl.opengl.GL31.*;
+import static org.lwjgl.opengl.GL33.*;
+import static org.lwjgl.opengl.GL40.*;
+
+import com.ra4king.opengl.util.render.GLStats.Counter;
+
+/**
+ * Shadows the currently bound program, VAO, array, element and draw indirect buffers, texture units, samplers and
+ * uniform buffer ranges, and filters out binds that would not change anything.
+ *
+ * All binds of these objects must go through this class, otherwise the shadowed state goes stale. Code that binds them
+ * directly must call {@link #invalidate()} afterwards. Buffers and VAOs must be deleted through deleteBuffer() and
+ * deleteVertexArray(), since GL reuses deleted names.
+ *
+ * @author Roi Atalla
+ */
+public final class GLState {
+	private static final int UNKNOWN = -1;
+
+	private static int program;
+	private static int vao;
+	private static int arrayBuffer;
+	private static int elementBuffer;
+	private static int indirectBuffer;
+
+	private static int activeTexture;
+	private static final int[] textureTargets;
+	private static final int[] textures;
+	private static final int[] samplers;
+
+	private static final int[] uniformBuffers;
+	private static final long[] uniformBufferOffsets;
+	private static final long[] uniformBufferSizes;
+
+	private static int issuedCalls, skippedCalls;
+	private static int lastIssuedCalls, lastSkippedCalls;
+
+	static {
+		int textureUnits = glGetInteger(GL_MAX_COMBINED_TEXTURE_IMAGE_UNITS);
+		textureTargets = new int[textureUnits];
+		textures = new int[textureUnits];
+		samplers = new int[textureUnits];
+
+		int uniformBindings = glGetInteger(GL_MAX_UNIFORM_BUFFER_BINDINGS);
+		uniformBuffers = new int[uniformBindings];
+		uniformBufferOffsets = new long[uniformBindings];
+		uniformBufferSizes = new long[uniformBindings];
+
+		invalidate();
+	}
+
+	private GLState() {}
+
+	/**
+	 * Forgets all shadowed state, forcing the next bind of each kind to be issued.
+	 */
+	public static void invalidate() {
+		program = UNKNOWN;
+		vao = UNKNOWN;
+		arrayBuffer = UNKNOWN;
+		elementBuffer = UNKNOWN;
+		indirectBuffer = UNKNOWN;
+
+		activeTexture = UNKNOWN;
+		for(int a = 0; a < textures.length; a++) {
+			textureTargets[a] = UNKNOWN;
+			textures[a] = UNKNOWN;
+			samplers[a] = UNKNOWN;
+		}
+
+		for(int a = 0; a < uniformBuffers.length; a++) {
+			uniformBuffers[a] = UNKNOWN;
+		}
+	}
+
+	public static void useProgram(int program) {
+		if(GLState.program == program) {
+			skippedCalls++;
+			return;
+		}
+
+		glUseProgram(program);
+		GLState.program = program;
+		issuedCalls++;
+		GLStats.increment(Counter.PROGRAM_BINDS);
+	}
+
+	/**
+	 * The element array buffer binding is part of the VAO, so it is forgotten whenever the VAO changes.
+	 */
+	public static void bindVertexArray(int vao) {
+		if(GLState.vao == vao) {
+			skippedCalls++;
+			return;
+		}
+
+		RenderUtils.glBindVertexArray(vao);
+		GLState.vao = vao;
+		elementBuffer = UNKNOWN;
+		issuedCalls++;
+		GLStats.increment(Counter.VAO_BINDS);
+	}
+
+	/**
+	 * Only GL_ARRAY_BUFFER, GL_ELEMENT_ARRAY_BUFFER and GL_DRAW_INDIRECT_BUFFER are shadowed, other targets are always
+	 * bound. Note that binding a GL_ELEMENT_ARRAY_BUFFER modifies the currently bound VAO.
+	 */
+	public static void bindBuffer(int target, int buffer) {
+		switch(target) {
+			case GL_ARRAY_BUFFER:
+				if(arrayBuffer == buffer) {
+					skippedCalls++;
+					return;
+				}
+
+				arrayBuffer = buffer;
+				break;
+			case GL_ELEMENT_ARRAY_BUFFER:
+				if(elementBuffer == buffer) {
+					skippedCalls++;
+					return;
+				}
+
+				elementBuffer = buffer;
+				break;
+			case GL_DRAW_INDIRECT_BUFFER:
+				if(indirectBuffer == buffer) {
+					skippedCalls++;
+					return;
+				}
+
+				indirectBuffer = buffer;
+				break;
+		}
+
+		glBindBuffer(target, buffer);
+		issuedCalls++;
+		GLStats.increment(Counter.BUFFER_BINDS);
+	}
+
+	/**
+	 * @param unit The texture unit index, not GL_TEXTUREi.
+	 */
+	public static void activeTexture(int unit) {
+		if(activeTexture == unit) {
+			skippedCalls++;
+			return;
+		}
+
+		glActiveTexture(GL_TEXTURE0 + unit);
+		activeTexture = unit;
+		issuedCalls++;
+	}
+
+	/**
+	 * Binds texture to target on the given texture unit, switching the active texture unit only if needed.
+	 */
+	public static void bindTexture(int unit, int target, int texture) {
+		if(textureTargets[unit] == target && textures[unit] == texture) {
+			skippedCalls++;
+			return;
+		}
+
+		activeTexture(unit);
+		glBindTexture(target, texture);
+		textureTargets[unit] = target;
+		textures[unit] = texture;
+		issuedCalls++;
+		GLStats.increment(Counter.TEXTURE_BINDS);
+	}
+
+	public static void bindSampler(int unit, int sampler) {
+		if(samplers[unit] == sampler) {
+			skippedCalls++;
+			return;
+		}
+
+		glBindSampler(unit, sampler);
+		samplers[unit] = sampler;
+		issuedCalls++;
+		GLStats.increment(Counter.SAMPLER_BINDS);
+	}
+
+	/**
+	 * Forgets every shadowed binding of buffer before deleting it, so that a later buffer reusing the name is bound.
+	 */
+	public static void deleteBuffer(int buffer) {
+		if(arrayBuffer == buffer)
+			arrayBuffer = UNKNOWN;
+
+		// only the bound VAO loses the binding, but the element buffer is only shadowed for that one
+		if(elementBuffer == buffer)
+			elementBuffer = UNKNOWN;
+
+		if(indirectBuffer == buffer)
+			indirectBuffer = UNKNOWN;
+
+		for(int a = 0; a < uniformBuffers.length; a++) {
+			if(uniformBuffers[a] == buffer)
+				uniformBuffers[a] = UNKNOWN;
+		}
+
+		glDeleteBuffers(buffer);
+	}
+
+	/**
+	 * Forgets the VAO binding if it is the deleted one, so that a later VAO reusing the name is bound.
+	 */
+	public static void deleteVertexArray(int vao) {
+		if(GLState.vao == vao) {
+			GLState.vao = UNKNOWN;
+			elementBuffer = UNKNOWN;
+		}
+
+		RenderUtils.glDeleteVertexArrays(vao);
+	}
+
+	/**
+	 * Only GL_UNIFORM_BUFFER ranges are shadowed, other targets are always bound.
+	 */
+	public static void bindBufferRange(int target, int index, int buffer, long offset, long size) {
+		if(target == GL_UNIFORM_BUFFER) {
+			if(uniformBuffers[index] == buffer && uniformBufferOffsets[index] == offset && uniformBufferSizes[index] == size) {
+				skippedCalls++;
+				return;
+			}
+
+			uniformBuffers[index] = buffer;
+			uniformBufferOffsets[index] = offset;
+			uniformBufferSizes[index] = size;
+		}
+
+		glBindBufferRange(target, index, buffer, offset, size);
+		issuedCalls++;
+		GLStats.increment(Counter.BUFFER_BINDS);
+	}
+
+	public static void bindBufferBase(int target, int index, int buffer) {
+		if(target == GL_UNIFORM_BUFFER) {
+			// a size of -1 marks the whole buffer
+			if(uniformBuffers[index] == buffer && uniformBufferOffsets[index] == 0 && uniformBufferSizes[index] == -1) {
+				skippedCalls++;
+				return;
+			}
+
+			uniformBuffers[index] = buffer;
+			uniformBufferOffsets[index] = 0;
+			uniformBufferSizes[index] = -1;
+		}
+
+		glBindBufferBase(target, index, buffer);
+		issuedCalls++;
+		GLStats.increment(Counter.BUFFER_BINDS);
+	}
+
+	/**
+	 * Marks the end of a frame, making this frame's counters available through the getters and resetting them.
+	 */
+	public static void endFrame() {
+		lastIssuedCalls = issuedCalls;
+		lastSkippedCalls = skippedCalls;
+
+		issuedCalls = 0;
+		skippedCalls = 0;
+	}
+
+	/**
+	 * @return The number of binds that reached GL during the last frame.
+	 */
+	public static int getIssuedCalls() {
+		return lastIssuedCalls;
+	}
+
+	/**
+	 * @return The number of redundant binds that were filtered out during the last frame.
+	 */
+	public static int getSkippedCalls() {
+		return lastSkippedCalls;
+	}
+}
@@ -0,0 +1,86 @@
+package com.ra4king.opengl.util.render;
+
+import java.util.function.Supplier;
+
+/**
+ * Counts the GL work done each frame: draw calls, state changes that reached GL and bytes uploaded to buffers.
+ *
+ * Counters only ever increase while a frame runs. {@link #endFrame()} publishes the frame's values to
+ * {@link #get(Counter)}. Stopwatch snapshots the running totals to attribute counts to its timers.
+ *
+ * @author Roi Atalla
+ */
+public final class GLStats {
+	public enum Counter {
+		DRAW_CALLS,
+		/**
+		 * Individual draws submitted, including each command of a multi-draw and each instance of an instanced draw.
+		 */
+		DRAWS,
+		PROGRAM_BINDS,
+		VAO_BINDS,
+		BUFFER_BINDS,
+		TEXTURE_BINDS,
+		SAMPLER_BINDS,
+		UNIFORM_UPDATES,
+		UPLOAD_BYTES;
+
+		public static final Counter[] values = values();
+	}
+
+	private static final long[] totals = new long[Counter.values.length];
+	private static final long[] frameStart = new long[Counter.values.length];
+	private static final long[] lastFrame = new long[Counter.values.length];
+
+	private GLStats() {}
+
+	public static void add(Counter counter, long amount) {
+		totals[counter.ordinal()] += amount;
+	}
+
+	public static void increment(Counter counter) {
+		totals[counter.ordinal()]++;
+	}
+
+	/**
+	 * @return The running total of counter since startup.
+	 */
+	public static long getTotal(Counter counter) {
+		return totals[counter.ordinal()];
+	}
+
+	/**
+	 * Copies the running totals of all counters into snapshot, indexed by ordinal.
+	 */
+	public static void getTotals(long[] snapshot) {
+		System.arraycopy(totals, 0, snapshot, 0, totals.length);
+	}
+
+	/**
+	 * @return The value of counter during the last completed frame.
+	 */
+	public static long get(Counter counter) {
+		return lastFrame[counter.ordinal()];
+	}
+
+	/**
+	 * @return The value of counter so far during the current frame.
+	 */
+	public static long getCurrent(Counter counter) {
+		return totals[counter.ordinal()] - frameStart[counter.ordinal()];
+	}
+
+	/**
+	 * @return A Supplier of the last frame's value of counter, for use with PerformanceGraph.
+	 */
+	public static Supplier<Long> supplier(final Counter counter) {
+		return () -> get(counter);
+	}
+
+	public static void endFrame() {
+		for(int a = 0; a < totals.length; a++) {
+			lastFrame[a] = totals[a] - frameStart[a];
+			frameStart[a] = totals[a];
+		}
+	}
+}
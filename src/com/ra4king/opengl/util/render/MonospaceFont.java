@@ -16,6 +16,7 @@ import com.ra4king.opengl.util.ShaderProgram;
 import com.ra4king.opengl.util.Utils;
 import com.ra4king.opengl.util.math.Matrix4;
 import com.ra4king.opengl.util.math.Vector4;
+import com.ra4king.opengl.util.render.GLStats.Counter;
 
 /**
  * @author Roi Atalla
@@ -60,14 +61,14 @@ public class MonospaceFont {
 		font.texCharWidth = 1f / characters.length();
 		
 		font.fontTex = glGenTextures();
-		glBindTexture(GL_TEXTURE_2D, font.fontTex);
+		GLState.bindTexture(0, GL_TEXTURE_2D, font.fontTex);
 		glTexImage2D(GL_TEXTURE_2D, 0, GL_RGBA, imageWidth, imageHeight, 0, GL_RGBA, GL_UNSIGNED_BYTE, imageData);
 		glTexParameteri(GL_TEXTURE_2D, GL_TEXTURE_MIN_FILTER, GL_LINEAR_MIPMAP_LINEAR);
 		glTexParameteri(GL_TEXTURE_2D, GL_TEXTURE_MAG_FILTER, GL_LINEAR);
 		glTexParameteri(GL_TEXTURE_2D, GL_TEXTURE_WRAP_S, GL_REPEAT);
 		glTexParameteri(GL_TEXTURE_2D, GL_TEXTURE_WRAP_T, GL_REPEAT);
 		glGenerateMipmap(GL_TEXTURE_2D);
-		glBindTexture(GL_TEXTURE_2D, 0);
+		GLState.bindTexture(0, GL_TEXTURE_2D, 0);
 		
 		font.fontProgram = new ShaderProgram(Utils.readFully(PerformanceGraph.class.getResourceAsStream(RenderUtils.SHADERS_PATH + "mono_font.vert")),
 		                                      Utils.readFully(PerformanceGraph.class.getResourceAsStream(RenderUtils.SHADERS_PATH + "mono_font.frag")));
@@ -75,22 +76,22 @@ public class MonospaceFont {
 		font.colorUniform = font.fontProgram.getUniformLocation("color");
 		
 		font.fontProgram.begin();
-		glUniform1i(font.fontProgram.getUniformLocation("fontTex"), 0);
+		font.fontProgram.setUniform1i(font.fontProgram.getUniformLocation("fontTex"), 0);
 		//glUniform1f(font.fontProgram.getUniformLocation("texCharWidth"), (float)charWidth / characters.length());
 		font.fontProgram.end();
 		
-		font.fontVAO = glGenVertexArrays();
-		glBindVertexArray(font.fontVAO);
+		font.fontVAO = RenderUtils.glGenVertexArrays();
+		GLState.bindVertexArray(font.fontVAO);
 		
 		font.fontVBO = glGenBuffers();
-		glBindBuffer(GL_ARRAY_BUFFER, font.fontVBO);
+		GLState.bindBuffer(GL_ARRAY_BUFFER, font.fontVBO);
 		
 		glEnableVertexAttribArray(0);
 		glVertexAttribPointer(0, 2, GL_FLOAT, false, 16, 0);
 		glEnableVertexAttribArray(1);
 		glVertexAttribPointer(1, 2, GL_FLOAT, false, 16, 8);
 		
-		glBindBuffer(GL_ARRAY_BUFFER, 0);
+		GLState.bindBuffer(GL_ARRAY_BUFFER, 0);
 		
 		return font;
 	}
@@ -102,9 +103,9 @@ public class MonospaceFont {
 		
 		fontProgram.begin();
 		
-		glUniformMatrix4(projectionMatrixUniform, false, new Matrix4().clearToOrtho(0, RenderUtils.getWidth(), 0, RenderUtils.getHeight(), 0, 1).toBuffer());
+		fontProgram.setUniformMatrix4(projectionMatrixUniform, new Matrix4().clearToOrtho(0, RenderUtils.getWidth(), 0, RenderUtils.getHeight(), 0, 1));
 		
-		glUniform4(colorUniform, color.toBuffer());
+		fontProgram.setUniform4f(colorUniform, color.x(), color.y(), color.z(), color.w());
 		
 		buffer.clear();
 		
@@ -156,15 +157,17 @@ public class MonospaceFont {
 		}
 		
 		buffer.flip();
-		glBindBuffer(GL_ARRAY_BUFFER, fontVBO);
+		GLState.bindBuffer(GL_ARRAY_BUFFER, fontVBO);
+		GLStats.add(Counter.UPLOAD_BYTES, buffer.remaining() * 4);
 		glBufferData(GL_ARRAY_BUFFER, buffer, GL_STREAM_DRAW);
 		
-		RenderUtils.glBindVertexArray(fontVAO);
+		GLState.bindVertexArray(fontVAO);
 		
-		glActiveTexture(GL_TEXTURE0);
-		glBindTexture(GL_TEXTURE_2D, fontTex);
+		GLState.bindTexture(0, GL_TEXTURE_2D, fontTex);
 		
 		glDrawArrays(GL_TRIANGLES, 0, charsDrawn * 6);
+		GLStats.increment(Counter.DRAW_CALLS);
+		GLStats.increment(Counter.DRAWS);
 		
 		glEnable(GL_DEPTH_TEST);
 	}
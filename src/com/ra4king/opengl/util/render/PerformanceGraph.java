@@ -11,13 +11,10 @@ import static org.lwjgl.opengl.GL11.glDrawArrays;
 import static org.lwjgl.opengl.GL11.glEnable;
 import static org.lwjgl.opengl.GL15.GL_ARRAY_BUFFER;
 import static org.lwjgl.opengl.GL15.GL_STREAM_DRAW;
-import static org.lwjgl.opengl.GL15.glBindBuffer;
 import static org.lwjgl.opengl.GL15.glBufferData;
 import static org.lwjgl.opengl.GL15.glBufferSubData;
 import static org.lwjgl.opengl.GL15.glGenBuffers;
 import static org.lwjgl.opengl.GL20.glEnableVertexAttribArray;
-import static org.lwjgl.opengl.GL20.glUniform4;
-import static org.lwjgl.opengl.GL20.glUniformMatrix4;
 import static org.lwjgl.opengl.GL20.glVertexAttribPointer;
 
 import java.nio.FloatBuffer;
@@ -29,6 +26,7 @@ import com.ra4king.opengl.util.ShaderProgram;
 import com.ra4king.opengl.util.Utils;
 import com.ra4king.opengl.util.math.Matrix4;
 import com.ra4king.opengl.util.math.Vector4;
+import com.ra4king.opengl.util.render.GLStats.Counter;
 
 /**
  * @author Roi Atalla
@@ -91,7 +89,7 @@ public class PerformanceGraph {
 			initProgram();
 		
 		vao = RenderUtils.glGenVertexArrays();
-		RenderUtils.glBindVertexArray(vao);
+		GLState.bindVertexArray(vao);
 		
 		float[] graph = {
 				getX(), getY(),
@@ -106,7 +104,7 @@ public class PerformanceGraph {
 		stepCount = 0;
 
 		vbo = glGenBuffers();
-		glBindBuffer(GL_ARRAY_BUFFER, vbo);
+		GLState.bindBuffer(GL_ARRAY_BUFFER, vbo);
 		glBufferData(GL_ARRAY_BUFFER, (graphOffset + graphData.capacity()) * Float.BYTES, GL_STREAM_DRAW);
 
 		glBufferSubData(GL_ARRAY_BUFFER, 0, BufferUtils.createFloatBuffer(graph.length).put(graph).flip());
@@ -114,8 +112,8 @@ public class PerformanceGraph {
 		glEnableVertexAttribArray(0);
 		glVertexAttribPointer(0, 2, GL_FLOAT, false, 0, 0);
 
-		glBindBuffer(GL_ARRAY_BUFFER, 0);
-		RenderUtils.glBindVertexArray(0);
+		GLState.bindBuffer(GL_ARRAY_BUFFER, 0);
+		GLState.bindVertexArray(0);
 	}
 	
 	public int getX() {
@@ -193,9 +191,10 @@ public class PerformanceGraph {
 			graphData.put(0, getX() + getWidth() - getStepWidth());
 			graphData.put(1, getY() + stepHeight);
 			
-			glBindBuffer(GL_ARRAY_BUFFER, vbo);
+			GLState.bindBuffer(GL_ARRAY_BUFFER, vbo);
 			glBufferSubData(GL_ARRAY_BUFFER, graphOffset * Float.BYTES, graphData);
-			glBindBuffer(GL_ARRAY_BUFFER, 0);
+			GLStats.add(Counter.UPLOAD_BYTES, graphData.remaining() * Float.BYTES);
+			GLState.bindBuffer(GL_ARRAY_BUFFER, 0);
 		}
 	}
 	
@@ -206,13 +205,15 @@ public class PerformanceGraph {
 		
 		uiProgram.begin();
 		
-		glUniform4(uiProgram.getUniformLocation("color"), color.toBuffer());
-		glUniformMatrix4(uiProgram.getUniformLocation("projectionMatrix"), false, new Matrix4().clearToOrtho(0, RenderUtils.getWidth(), 0, RenderUtils.getHeight(), 0, 1).toBuffer());
+		uiProgram.setUniform4f(uiProgram.getUniformLocation("color"), color.x(), color.y(), color.z(), color.w());
+		uiProgram.setUniformMatrix4(uiProgram.getUniformLocation("projectionMatrix"), new Matrix4().clearToOrtho(0, RenderUtils.getWidth(), 0, RenderUtils.getHeight(), 0, 1));
 		
-		RenderUtils.glBindVertexArray(vao);
+		GLState.bindVertexArray(vao);
 		glDrawArrays(GL_LINES, 0, graphOffset / 2);
 		glDrawArrays(GL_LINE_STRIP, graphOffset / 2, stepCount);
-		RenderUtils.glBindVertexArray(0);
+		GLStats.add(Counter.DRAW_CALLS, 2);
+		GLStats.add(Counter.DRAWS, 2);
+		GLState.bindVertexArray(0);
 		
 		uiProgram.end();
 		
@@ -77,6 +77,21 @@ public final class RenderUtils {
 		}
 	}
 	
+	public static void glDeleteVertexArrays(int vao) {
+		if(GL_VERSION >= 30) {
+			GL30.glDeleteVertexArrays(vao);
+		}
+		else if(IS_MAC) {
+			APPLEVertexArrayObject.glDeleteVertexArraysAPPLE(vao);
+		}
+		else if(GLContext.getCapabilities().GL_ARB_vertex_array_object) {
+			ARBVertexArrayObject.glDeleteVertexArrays(vao);
+		}
+		else {
+			throw new UnsupportedOperationException("VAOs not supported on this system.");
+		}
+	}
+	
 	public static void glDrawArraysInstanced(int mode, int first, int count, int primcount) {
 		if(GL_VERSION >= 31) {
 			GL31.glDrawArraysInstanced(mode, first, count, primcount);
@@ -0,0 +1,108 @@
+package com.ra4king.opengl.util.scene;
+
+import java.util.Arrays;
+
+/**
+ * A list of draws, each identified by an int item and ordered by an unsigned 64-bit sort key.
+ *
+ * @author Roi Atalla
+ */
+public class RenderQueue {
+	private long[] keys, tempKeys;
+	private int[] items, tempItems;
+	private int size;
+
+	private final int[] counts = new int[256];
+
+	public RenderQueue() {
+		this(64);
+	}
+
+	public RenderQueue(int initialCapacity) {
+		keys = new long[initialCapacity];
+		tempKeys = new long[initialCapacity];
+		items = new int[initialCapacity];
+		tempItems = new int[initialCapacity];
+	}
+
+	public void clear() {
+		size = 0;
+	}
+
+	public int size() {
+		return size;
+	}
+
+	public void add(long key, int item) {
+		if (size == keys.length) {
+			int capacity = Math.max(keys.length * 2, 16);
+			keys = Arrays.copyOf(keys, capacity);
+			items = Arrays.copyOf(items, capacity);
+			tempKeys = new long[capacity];
+			tempItems = new int[capacity];
+		}
+
+		keys[size] = key;
+		items[size] = item;
+		size++;
+	}
+
+	public long getKey(int index) {
+		return keys[index];
+	}
+
+	public int getItem(int index) {
+		return items[index];
+	}
+
+	/**
+	 * Stable LSD radix sort on the keys, treated as unsigned, one byte per pass. Bytes that are identical across all
+	 * keys are skipped.
+	 */
+	public void sort() {
+		if (size < 2) {
+			return;
+		}
+
+		long allOr = 0, allAnd = -1;
+		for (int a = 0; a < size; a++) {
+			allOr |= keys[a];
+			allAnd &= keys[a];
+		}
+
+		long differingBits = allOr ^ allAnd;
+
+		for (int shift = 0; shift < 64; shift += 8) {
+			if (((differingBits >>> shift) & 0xFF) == 0) {
+				continue;
+			}
+
+			Arrays.fill(counts, 0);
+
+			for (int a = 0; a < size; a++) {
+				counts[(int)(keys[a] >>> shift) & 0xFF]++;
+			}
+
+			int offset = 0;
+			for (int a = 0; a < counts.length; a++) {
+				int count = counts[a];
+				counts[a] = offset;
+				offset += count;
+			}
+
+			for (int a = 0; a < size; a++) {
+				int dest = counts[(int)(keys[a] >>> shift) & 0xFF]++;
+				tempKeys[dest] = keys[a];
+				tempItems[dest] = items[a];
+			}
+
+			long[] swapKeys = keys;
+			keys = tempKeys;
+			tempKeys = swapKeys;
+
+			int[] swapItems = items;
+			items = tempItems;
+			tempItems = swapItems;
+		}
+	}
+}
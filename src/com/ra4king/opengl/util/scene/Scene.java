@@ -2,6 +2,7 @@ package com.ra4king.opengl.util.scene;
 
 import static org.lwjgl.opengl.EXTTextureFilterAnisotropic.GL_MAX_TEXTURE_MAX_ANISOTROPY_EXT;
 import static org.lwjgl.opengl.EXTTextureFilterAnisotropic.GL_TEXTURE_MAX_ANISOTROPY_EXT;
+import static org.lwjgl.opengl.GL11.GL_FLOAT;
 import static org.lwjgl.opengl.GL11.GL_LINEAR;
 import static org.lwjgl.opengl.GL11.GL_NEAREST;
 import static org.lwjgl.opengl.GL11.GL_NEAREST_MIPMAP_LINEAR;
@@ -11,20 +12,24 @@ import static org.lwjgl.opengl.GL11.GL_TEXTURE_MAG_FILTER;
 import static org.lwjgl.opengl.GL11.GL_TEXTURE_MIN_FILTER;
 import static org.lwjgl.opengl.GL11.GL_TEXTURE_WRAP_S;
 import static org.lwjgl.opengl.GL11.GL_TEXTURE_WRAP_T;
-import static org.lwjgl.opengl.GL11.glBindTexture;
 import static org.lwjgl.opengl.GL11.glGetFloat;
 import static org.lwjgl.opengl.GL12.GL_CLAMP_TO_EDGE;
 import static org.lwjgl.opengl.GL12.GL_TEXTURE_WRAP_R;
 import static org.lwjgl.opengl.GL13.GL_CLAMP_TO_BORDER;
-import static org.lwjgl.opengl.GL13.GL_TEXTURE0;
-import static org.lwjgl.opengl.GL13.glActiveTexture;
 import static org.lwjgl.opengl.GL14.GL_MIRRORED_REPEAT;
-import static org.lwjgl.opengl.GL20.glUniform1i;
-import static org.lwjgl.opengl.GL20.glUniformMatrix3;
-import static org.lwjgl.opengl.GL20.glUniformMatrix4;
+import static org.lwjgl.opengl.GL15.GL_ARRAY_BUFFER;
+import static org.lwjgl.opengl.GL15.GL_DYNAMIC_DRAW;
+import static org.lwjgl.opengl.GL15.GL_STREAM_DRAW;
+import static org.lwjgl.opengl.GL15.glBufferData;
+import static org.lwjgl.opengl.GL15.glGenBuffers;
+import static org.lwjgl.opengl.GL20.glDisableVertexAttribArray;
+import static org.lwjgl.opengl.GL20.glEnableVertexAttribArray;
+import static org.lwjgl.opengl.GL20.glVertexAttribPointer;
 import static org.lwjgl.opengl.GL31.GL_INVALID_INDEX;
+import static org.lwjgl.opengl.GL31.GL_UNIFORM_BLOCK_DATA_SIZE;
+import static org.lwjgl.opengl.GL31.GL_UNIFORM_BUFFER;
+import static org.lwjgl.opengl.GL31.glGetActiveUniformBlocki;
 import static org.lwjgl.opengl.GL31.glUniformBlockBinding;
-import static org.lwjgl.opengl.GL33.glBindSampler;
 import static org.lwjgl.opengl.GL33.glGenSamplers;
 import static org.lwjgl.opengl.GL33.glSamplerParameterf;
 import static org.lwjgl.opengl.GL33.glSamplerParameteri;
@@ -32,21 +37,38 @@ import static org.lwjgl.opengl.GL33.glSamplerParameteri;
 import java.io.IOException;
 import java.io.InputStream;
 import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.FloatBuffer;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.TreeMap;
 
+import org.lwjgl.BufferUtils;
 import org.xmlpull.v1.XmlPullParser;
 import org.xmlpull.v1.XmlPullParserException;
 import org.xmlpull.v1.XmlPullParserFactory;
 
 import com.ra4king.opengl.util.Mesh;
+import com.ra4king.opengl.util.ShaderPreprocessor;
 import com.ra4king.opengl.util.ShaderProgram;
+import com.ra4king.opengl.util.ShaderVariantCache;
 import com.ra4king.opengl.util.Utils;
+import com.ra4king.opengl.util.buffers.FrameAllocator;
 import com.ra4king.opengl.util.loader.XMLMeshLoader;
 import com.ra4king.opengl.util.math.Matrix3;
 import com.ra4king.opengl.util.math.Matrix4;
 import com.ra4king.opengl.util.math.Quaternion;
 import com.ra4king.opengl.util.math.Vector3;
+import com.ra4king.opengl.util.render.CommandList;
+import com.ra4king.opengl.util.render.GLState;
+import com.ra4king.opengl.util.render.GLStats;
+import com.ra4king.opengl.util.render.GLStats.Counter;
+import com.ra4king.opengl.util.render.RenderUtils;
 import com.ra4king.opengl.util.scene.Scene.SceneNode.Variant;
 import com.ra4king.opengl.util.scene.binders.StateBinder;
 
@@ -64,12 +86,41 @@ public class Scene {
 	private HashMap<String, SceneProgram> programs;
 	private HashMap<String, SceneNode> nodes;
 
+	private HashMap<String, Integer> samplerObjects = new HashMap<>();
+
+	private ShaderVariantCache shaderVariants;
+
+	private RenderQueue renderQueue = new RenderQueue();
+	private ArrayList<SceneNode> queuedNodes = new ArrayList<>();
+
+	private final ArrayList<SceneNode> instanceGroup = new ArrayList<>();
+	private FloatBuffer instanceData = BufferUtils.createFloatBuffer(64 * (Matrix4.LENGTH + Matrix3.LENGTH));
+	private int instanceBuffer;
+
+	private FrameAllocator uniformAllocator;
+
+	// std140 sizes of the object block prefixes: a mat4, then two mat3 stored as three vec4 columns each
+	private static final int OBJECT_BLOCK_MATRIX_SIZE = 64;
+	private static final int OBJECT_BLOCK_NORMAL_SIZE = OBJECT_BLOCK_MATRIX_SIZE + 48;
+	private static final int OBJECT_BLOCK_INV_NORMAL_SIZE = OBJECT_BLOCK_NORMAL_SIZE + 48;
+
 	public Scene(URL url, Class<?> clazz, String prefix) throws IOException, XmlPullParserException {
+		this(url, clazz, prefix, false);
+	}
+
+	/**
+	 * @param compileAsync If true, programs are compiled in the background and nodes using a program are skipped by
+	 *                     prepare() until it is ready. Errors in a program are then only thrown once it is done.
+	 */
+	public Scene(URL url, Class<?> clazz, String prefix, boolean compileAsync)
+		throws IOException, XmlPullParserException {
 		meshes = new HashMap<>();
 		textures = new HashMap<>();
 		programs = new HashMap<>();
 		nodes = new HashMap<>();
 
+		shaderVariants = new ShaderVariantCache(new ShaderPreprocessor(clazz, prefix));
+
 		try (InputStream is = url.openStream()) {
 			XmlPullParser xml = XmlPullParserFactory.newInstance().newPullParser();
 			xml.setInput(is, "UTF-8");
@@ -154,58 +205,73 @@ public class Scene {
 				throwIfNull(id, "id", "prog " + count);
 				throwIfNull(vertexFile, "vert", "prog " + count);
 				throwIfNull(fragmentFile, "frag", "prog " + count);
-				throwIfNull(modelMatrix, "model-to-camera", "prog " + count);
 
 				String normalModelMatrix = xml.getAttributeValue(null, "normal-model-to-camera");
 				String invNormalModelMatrix = xml.getAttributeValue(null, "normal-camera-to-model");
 				String geometryFile = xml.getAttributeValue(null, "geom");
 
-				if (programs.containsKey(id)) {
-					throw new IllegalArgumentException("Program named '" + id + "' already exists.");
-				}
+				// space separated feature defines, programs that share files, features and bindings share one
+				// ShaderProgram
+				String features = xml.getAttributeValue(null, "features");
 
-				ShaderProgram program;
-				try {
-					if (geometryFile != null) {
-						program = new ShaderProgram(Utils.readFully(clazz.getResourceAsStream(prefix + vertexFile)),
-						                            Utils.readFully(clazz.getResourceAsStream(prefix + geometryFile)),
-						                            Utils.readFully(clazz.getResourceAsStream(prefix + fragmentFile)));
-					} else {
-						program = new ShaderProgram(Utils.readFully(clazz.getResourceAsStream(prefix + vertexFile)),
-						                            Utils.readFully(clazz.getResourceAsStream(prefix + fragmentFile)));
-					}
-				} catch (Exception exc) {
-					throw new IllegalArgumentException("Invalid shaders for program " + id, exc);
-				}
+				// instanced programs read their matrices from per-instance vertex attributes at these locations
+				String instanceMatrix = xml.getAttributeValue(null, "instanced-model-to-camera");
+				String instanceNormalMatrix = xml.getAttributeValue(null, "instanced-normal-model-to-camera");
 
-				int matrixLocation = program.getUniformLocation(modelMatrix);
-				if (matrixLocation == -1) {
-					throw new IllegalArgumentException("Program shader '" + id + "' does not have a matrix uniform.");
-				}
+				// programs with an object block read their matrices from a uniform block instead of uniforms
+				String objectBlock = xml.getAttributeValue(null, "object-block");
+				String objectBlockBinding = xml.getAttributeValue(null, "object-block-binding");
 
-				int normalMatrixLocation = -1;
-				if (normalModelMatrix != null) {
-					normalMatrixLocation = program.getUniformLocation(normalModelMatrix);
-					if (normalMatrixLocation == -1) {
+				if (objectBlock != null) {
+					throwIfNull(objectBlockBinding, "object-block-binding", "prog " + count);
+
+					if (instanceMatrix != null || modelMatrix != null || normalModelMatrix != null ||
+					    invNormalModelMatrix != null) {
 						throw new IllegalArgumentException(
-							"Program shader '" + id + "' does not have a normal matrix uniform.");
+							"Program '" + id + "' with an object-block cannot have matrix uniforms or attributes.");
 					}
-				}
+				} else if (instanceMatrix == null) {
+					throwIfNull(modelMatrix, "model-to-camera", "prog " + count);
 
-				int invNormalMatrixLocation = -1;
-				if (invNormalModelMatrix != null) {
-					invNormalMatrixLocation = program.getUniformLocation(invNormalModelMatrix);
-					if (normalMatrixLocation == -1) {
+					if (instanceNormalMatrix != null) {
 						throw new IllegalArgumentException(
-							"Program shader '" + id + "' does not have a inverse normal matrix uniform.");
+							"Program '" + id + "' has instanced-normal-model-to-camera but no instanced-model-to-camera.");
+					}
+				} else if (modelMatrix != null || normalModelMatrix != null || invNormalModelMatrix != null) {
+					throw new IllegalArgumentException(
+						"Instanced program '" + id + "' cannot have model-to-camera, normal-model-to-camera or " +
+						"normal-camera-to-model uniforms.");
+				}
+
+				int instanceMatrixAttrib = -1;
+				int instanceNormalMatrixAttrib = -1;
+				try {
+					if (instanceMatrix != null) {
+						instanceMatrixAttrib = Integer.parseInt(instanceMatrix);
+					}
+
+					if (instanceNormalMatrix != null) {
+						instanceNormalMatrixAttrib = Integer.parseInt(instanceNormalMatrix);
 					}
+				} catch (Exception exc) {
+					throw new IllegalArgumentException(
+						"Instanced matrix attributes in program '" + id + "' are invalid values; must be integers.");
+				}
+
+				if (programs.containsKey(id)) {
+					throw new IllegalArgumentException("Program named '" + id + "' already exists.");
 				}
 
-				programs.put(id,
-				             new SceneProgram(program, matrixLocation, normalMatrixLocation, invNormalMatrixLocation));
+				final int objectBlockBindPoint;
+				try {
+					objectBlockBindPoint = objectBlock == null ? -1 : Integer.parseInt(objectBlockBinding);
+				} catch (Exception exc) {
+					throw new IllegalArgumentException(
+						"Binding of object-block in program '" + id + "' is invalid value; must be integer.");
+				}
 
-				ArrayList<String> blocks = new ArrayList<>();
-				ArrayList<String> samplers = new ArrayList<>();
+				TreeMap<String, Integer> blocks = new TreeMap<>();
+				TreeMap<String, Integer> samplers = new TreeMap<>();
 
 				while (xml.nextTag() == XmlPullParser.START_TAG) {
 					switch (xml.getName()) {
@@ -216,29 +282,18 @@ public class Scene {
 							throwIfNull(name, "name", "block in program '" + id + "'");
 							throwIfNull(binding, "binding", "block in program '" + id + "'");
 
-							if (blocks.contains(name)) {
+							if (blocks.containsKey(name)) {
 								throw new IllegalArgumentException(
 									"Block '" + name + "' is used more than once in program '" + id + "'.");
 							}
 
-							blocks.add(name);
-
-							int blockIndex = program.getUniformBlockIndex(name);
-							if (blockIndex == GL_INVALID_INDEX) {
-								throw new IllegalArgumentException(
-									"Block '" + name + "' cannot be found in program '" + id + "'.");
-							}
-
-							int bindPoint;
 							try {
-								bindPoint = Integer.parseInt(binding);
+								blocks.put(name, Integer.parseInt(binding));
 							} catch (Exception exc) {
 								throw new IllegalArgumentException(
 									"Binding in block '" + name + "' is invalid value; must be integer.");
 							}
 
-							glUniformBlockBinding(program.getProgram(), blockIndex, bindPoint);
-
 							xml.next();
 							xml.require(XmlPullParser.END_TAG, null, "block");
 
@@ -251,31 +306,18 @@ public class Scene {
 							throwIfNull(name, "name", "sampler in program '" + id + "'");
 							throwIfNull(texUnit, "unit", "sampler in program '" + id + "'");
 
-							if (samplers.contains(name)) {
+							if (samplers.containsKey(name)) {
 								throw new IllegalArgumentException(
 									"Sampler '" + name + "' is used more than once in program '" + id + "'.");
 							}
 
-							samplers.add(name);
-
-							int samplerLocation = program.getUniformLocation(name);
-							if (samplerLocation == -1) {
-								throw new IllegalArgumentException(
-									"Sampler '" + name + "' cannot be found in program '" + id + "'.");
-							}
-
-							int textureUnit;
 							try {
-								textureUnit = Integer.parseInt(texUnit);
+								samplers.put(name, Integer.parseInt(texUnit));
 							} catch (Exception exc) {
 								throw new IllegalArgumentException(
 									"Texture unit in sampler '" + name + "' is invalid value; must be integer.");
 							}
 
-							program.begin();
-							glUniform1i(samplerLocation, textureUnit);
-							program.end();
-
 							xml.next();
 							xml.require(XmlPullParser.END_TAG, null, "sampler");
 
@@ -286,128 +328,239 @@ public class Scene {
 					}
 				}
 
+				List<String> featureList = features == null || features.trim().isEmpty() ?
+				                           Collections.<String>emptyList() :
+				                           Arrays.asList(features.trim().split("\\s+"));
+
+				// block bindings and sampler units are state of the program object, so progs only share a program
+				// if they set the same ones
+				String bindings = "object-block " + objectBlock + "=" + objectBlockBindPoint + " blocks " + blocks +
+				                  " samplers " + samplers;
+
+				final ShaderProgram program;
+				try {
+					if (compileAsync) {
+						program = shaderVariants.prewarm(vertexFile, geometryFile, fragmentFile, featureList, bindings);
+					} else {
+						program = shaderVariants.get(vertexFile, geometryFile, fragmentFile, featureList, bindings);
+					}
+				} catch (Exception exc) {
+					throw new IllegalArgumentException("Invalid shaders for program " + id, exc);
+				}
+
+				// the uniform locations are only known once the program is linked
+				final SceneProgram sceneProgram =
+					new SceneProgram(program, -1, -1, -1, instanceMatrixAttrib, instanceNormalMatrixAttrib);
+
+				// created up front so that instanced draws can be recorded off the GL thread
+				if (sceneProgram.isInstanced() && instanceBuffer == 0) {
+					instanceBuffer = glGenBuffers();
+				}
+
+				sceneProgram.addSetup(() -> {
+					if (modelMatrix != null) {
+						sceneProgram.matrixUniform = program.getUniformLocation(modelMatrix);
+						if (sceneProgram.matrixUniform == -1) {
+							throw new IllegalArgumentException(
+								"Program shader '" + id + "' does not have a matrix uniform.");
+						}
+					}
+
+					if (normalModelMatrix != null) {
+						sceneProgram.normalMatrixUniform = program.getUniformLocation(normalModelMatrix);
+						if (sceneProgram.normalMatrixUniform == -1) {
+							throw new IllegalArgumentException(
+								"Program shader '" + id + "' does not have a normal matrix uniform.");
+						}
+					}
+
+					if (invNormalModelMatrix != null) {
+						sceneProgram.invNormalMatrixUniform = program.getUniformLocation(invNormalModelMatrix);
+						if (sceneProgram.invNormalMatrixUniform == -1) {
+							throw new IllegalArgumentException(
+								"Program shader '" + id + "' does not have a inverse normal matrix uniform.");
+						}
+					}
+
+					if (objectBlock != null) {
+						int blockIndex = program.getUniformBlockIndex(objectBlock);
+						if (blockIndex == GL_INVALID_INDEX) {
+							throw new IllegalArgumentException(
+								"Block '" + objectBlock + "' cannot be found in program '" + id + "'.");
+						}
+
+						sceneProgram.setObjectBlock(blockIndex, objectBlockBindPoint);
+					}
+
+					for (String name : blocks.keySet()) {
+						int blockIndex = program.getUniformBlockIndex(name);
+						if (blockIndex == GL_INVALID_INDEX) {
+							throw new IllegalArgumentException(
+								"Block '" + name + "' cannot be found in program '" + id + "'.");
+						}
+
+						glUniformBlockBinding(program.getProgram(), blockIndex, blocks.get(name));
+					}
+
+					program.begin();
+					for (String name : samplers.keySet()) {
+						int samplerLocation = program.getUniformLocation(name);
+						if (samplerLocation == -1) {
+							throw new IllegalArgumentException(
+								"Sampler '" + name + "' cannot be found in program '" + id + "'.");
+						}
+
+						program.setUniform1i(samplerLocation, samplers.get(name));
+					}
+					program.end();
+				});
+
+				programs.put(id, sceneProgram);
+
 				xml.require(XmlPullParser.END_TAG, null, "prog");
 
+				if (!compileAsync) {
+					sceneProgram.finish();
+				}
+
 				count++;
 			} while (xml.nextTag() == XmlPullParser.START_TAG && xml.getName().equals("prog"));
 
 			xml.require(XmlPullParser.START_TAG, null, "node");
 
-			count = 0;
 			do {
-				String name = xml.getAttributeValue(null, "name");
-				String mesh = xml.getAttributeValue(null, "loader");
+				readNode(xml, null);
+			} while (xml.nextTag() == XmlPullParser.START_TAG && xml.getName().equals("node"));
+		}
+	}
 
-				throwIfNull(name, "name", "node " + count);
-				throwIfNull(mesh, "loader", "node " + count);
+	private void readNode(XmlPullParser xml, SceneNode parent) throws IOException, XmlPullParserException {
+		int count = nodes.size();
 
-				String prog = xml.getAttributeValue(null, "prog");
-				String position = xml.getAttributeValue(null, "pos");
-				String orient = xml.getAttributeValue(null, "orient");
-				String scale = xml.getAttributeValue(null, "scale");
+		String name = xml.getAttributeValue(null, "name");
+		String mesh = xml.getAttributeValue(null, "loader");
 
-				throwIfNull(position, "pos", "node " + count);
+		throwIfNull(name, "name", "node " + count);
+		throwIfNull(mesh, "loader", "node " + count);
 
-				if (nodes.containsKey(name)) {
-					throw new IllegalArgumentException("Node named '" + name + "' already exists.");
-				}
+		String prog = xml.getAttributeValue(null, "prog");
+		String position = xml.getAttributeValue(null, "pos");
+		String orient = xml.getAttributeValue(null, "orient");
+		String scale = xml.getAttributeValue(null, "scale");
+		String transparent = xml.getAttributeValue(null, "transparent");
 
-				if (!meshes.containsKey(mesh)) {
-					throw new IllegalArgumentException(
-						"Mesh named '" + mesh + "' in node '" + name + "' does not exist.");
-				}
+		throwIfNull(position, "pos", "node " + count);
 
-				if (prog != null) {
-					if (!programs.containsKey(prog)) {
-						throw new IllegalArgumentException(
-							"Program named '" + prog + "' in node '" + name + "' does not exist.");
-					}
-				}
+		if (nodes.containsKey(name)) {
+			throw new IllegalArgumentException("Node named '" + name + "' already exists.");
+		}
 
-				Vector3 nodePos;
-				try {
-					nodePos = Utils.parseVector3(position);
-				} catch (Exception exc) {
-					throw new IllegalArgumentException("Invalid Vector3 for position in node '" + name + "'.");
-				}
+		if (!meshes.containsKey(mesh)) {
+			throw new IllegalArgumentException(
+				"Mesh named '" + mesh + "' in node '" + name + "' does not exist.");
+		}
 
-				ArrayList<TextureBinding> texBindings = readNodeTextures(name, xml);
+		if (prog != null) {
+			if (!programs.containsKey(prog)) {
+				throw new IllegalArgumentException(
+					"Program named '" + prog + "' in node '" + name + "' does not exist.");
+			}
+		}
 
-				HashMap<String, Variant> variants = new HashMap<>();
+		Vector3 nodePos;
+		try {
+			nodePos = Utils.parseVector3(position);
+		} catch (Exception exc) {
+			throw new IllegalArgumentException("Invalid Vector3 for position in node '" + name + "'.");
+		}
 
-				int variantCount = 0;
-				while (xml.getName().equals("variant")) {
-					String variantName = xml.getAttributeValue(null, "name");
-					String variantProg = xml.getAttributeValue(null, "prog");
-					String variantBase = xml.getAttributeValue(null, "base");
+		ArrayList<TextureBinding> texBindings = readNodeTextures(name, xml);
 
-					throwIfNull(variantName, "name", "variant " + variantCount + " in node '" + name + "'");
-					if (variantProg == null && variantBase == null) {
-						throw new IllegalArgumentException(
-							"Variant " + variantCount + " missing base or program in node '" + name + "'.");
-					}
-					if (variantProg != null && variantBase != null) {
-						throw new IllegalArgumentException(
-							"Variant " + variantCount + " cannot have both base and program in node '" + name + "'.");
-					}
+		HashMap<String, Variant> variants = new HashMap<>();
 
-					if (variants.containsKey(variantName)) {
-						throw new IllegalArgumentException(
-							"Variant named '" + variantName + "' already exists in node '" + name + "'.");
-					}
+		int variantCount = 0;
+		while (xml.getName().equals("variant")) {
+			String variantName = xml.getAttributeValue(null, "name");
+			String variantProg = xml.getAttributeValue(null, "prog");
+			String variantBase = xml.getAttributeValue(null, "base");
+
+			throwIfNull(variantName, "name", "variant " + variantCount + " in node '" + name + "'");
+			if (variantProg == null && variantBase == null) {
+				throw new IllegalArgumentException(
+					"Variant " + variantCount + " missing base or program in node '" + name + "'.");
+			}
+			if (variantProg != null && variantBase != null) {
+				throw new IllegalArgumentException(
+					"Variant " + variantCount + " cannot have both base and program in node '" + name + "'.");
+			}
 
-					ArrayList<TextureBinding> variantTexBindings = readNodeTextures(variantName, xml);
+			if (variants.containsKey(variantName)) {
+				throw new IllegalArgumentException(
+					"Variant named '" + variantName + "' already exists in node '" + name + "'.");
+			}
 
-					Variant variant;
-					if (prog != null) {
-						if (!programs.containsKey(prog)) {
-							throw new IllegalArgumentException(
-								"Program named '" + prog + "' in variant '" + variantName + "' in node '" + name +
-								"' does not exist.");
-						}
+			ArrayList<TextureBinding> variantTexBindings = readNodeTextures(variantName, xml);
 
-						variant = new Variant(programs.get(prog), variantTexBindings);
-					} else {
-						variant = new Variant(null, variantTexBindings);
-					}
+			Variant variant;
+			if (prog != null) {
+				if (!programs.containsKey(prog)) {
+					throw new IllegalArgumentException(
+						"Program named '" + prog + "' in variant '" + variantName + "' in node '" + name +
+						"' does not exist.");
+				}
 
-					variants.put(name, variant);
+				variant = new Variant(programs.get(prog), variantTexBindings);
+			} else {
+				variant = new Variant(null, variantTexBindings);
+			}
 
-					xml.require(XmlPullParser.END_TAG, null, "variant");
+			variants.put(name, variant);
 
-					xml.nextTag();
-				}
+			xml.require(XmlPullParser.END_TAG, null, "variant");
 
-				SceneNode node = new SceneNode(meshes.get(mesh), programs.get(prog), nodePos, texBindings, variants);
-				nodes.put(name, node);
+			xml.nextTag();
+		}
 
-				if (orient != null) {
-					try {
-						node.setOrient(Utils.parseQuaternion(orient));
-					} catch (Exception exc) {
-						throw new IllegalArgumentException("Invalid quaternion for orient at node '" + node + "'.",
-						                                   exc);
-					}
-				}
+		SceneNode node = new SceneNode(meshes.get(mesh), programs.get(prog), nodePos, texBindings, variants);
+		node.scene = this;
+		nodes.put(name, node);
 
-				if (scale != null) {
-					try {
-						node.setScale(Utils.parseVector3(scale));
-					} catch (Exception exc) {
-						try {
-							node.setScale(new Vector3(Float.parseFloat(scale)));
-						} catch (Exception exc2) {
-							throw new IllegalArgumentException(
-								"Invalid Vector3 or float for scale at node '" + node + "'.");
-						}
-					}
-				}
+		if (parent != null) {
+			parent.addChild(node);
+		}
 
-				xml.require(XmlPullParser.END_TAG, null, "node");
+		if (transparent != null) {
+			node.setTransparent(Boolean.parseBoolean(transparent));
+		}
 
-				count++;
-			} while (xml.nextTag() == XmlPullParser.START_TAG && xml.getName().equals("node"));
+		if (orient != null) {
+			try {
+				node.setOrient(Utils.parseQuaternion(orient));
+			} catch (Exception exc) {
+				throw new IllegalArgumentException("Invalid quaternion for orient at node '" + node + "'.",
+				                                   exc);
+			}
+		}
+
+		if (scale != null) {
+			try {
+				node.setScale(Utils.parseVector3(scale));
+			} catch (Exception exc) {
+				try {
+					node.setScale(new Vector3(Float.parseFloat(scale)));
+				} catch (Exception exc2) {
+					throw new IllegalArgumentException(
+						"Invalid Vector3 or float for scale at node '" + node + "'.");
+				}
+			}
 		}
+
+		while (xml.getEventType() == XmlPullParser.START_TAG && xml.getName().equals("node")) {
+			readNode(xml, node);
+			xml.nextTag();
+		}
+
+		xml.require(XmlPullParser.END_TAG, null, "node");
 	}
 
 	private ArrayList<TextureBinding> readNodeTextures(String name, XmlPullParser xml)
@@ -533,16 +686,24 @@ public class Scene {
 				}
 			}
 
-			int sampler = glGenSamplers();
-			glSamplerParameteri(sampler, GL_TEXTURE_WRAP_S, edgeGLEnums[edge]);
-			glSamplerParameteri(sampler, GL_TEXTURE_WRAP_T, edgeGLEnums[edge]);
-			glSamplerParameteri(sampler, GL_TEXTURE_WRAP_R, edgeGLEnums[edge]);
+			// identical sampler states share one sampler object so that nodes can be batched by texture set
+			String samplerKey = filter + " " + edge + " " + aniso;
 
-			glSamplerParameteri(sampler, GL_TEXTURE_MAG_FILTER, magFilterGLEnums[filter]);
-			glSamplerParameteri(sampler, GL_TEXTURE_MIN_FILTER, minFilterGLEnums[filter]);
+			Integer sampler = samplerObjects.get(samplerKey);
+			if (sampler == null) {
+				sampler = glGenSamplers();
+				glSamplerParameteri(sampler, GL_TEXTURE_WRAP_S, edgeGLEnums[edge]);
+				glSamplerParameteri(sampler, GL_TEXTURE_WRAP_T, edgeGLEnums[edge]);
+				glSamplerParameteri(sampler, GL_TEXTURE_WRAP_R, edgeGLEnums[edge]);
 
-			if (aniso > 0) {
-				glSamplerParameterf(sampler, GL_TEXTURE_MAX_ANISOTROPY_EXT, aniso);
+				glSamplerParameteri(sampler, GL_TEXTURE_MAG_FILTER, magFilterGLEnums[filter]);
+				glSamplerParameteri(sampler, GL_TEXTURE_MIN_FILTER, minFilterGLEnums[filter]);
+
+				if (aniso > 0) {
+					glSamplerParameterf(sampler, GL_TEXTURE_MAX_ANISOTROPY_EXT, aniso);
+				}
+
+				samplerObjects.put(samplerKey, sampler);
 			}
 
 			texBindings.add(new TextureBinding(textures.get(texName), texUnit, sampler));
@@ -572,112 +733,1046 @@ public class Scene {
 		return meshes.get(meshName);
 	}
 
+	/**
+	 * The cache all of this scene's programs were built through, with #include and feature defines resolved against
+	 * the scene's resource prefix.
+	 */
+	public ShaderVariantCache getShaderVariants() {
+		return shaderVariants;
+	}
+
 	public SceneTexture findTexture(String textureName) {
 		return textures.get(textureName);
 	}
 
-	public void render(Matrix4 cameraMatrix) {
-		for (SceneNode node : nodes.values()) {
-			node.render(cameraMatrix);
+	/**
+	 * Sets the allocator that this scene's per-object uniform blocks and global block are streamed through. Its
+	 * endFrame() must be called once per frame, after the frame's draws have been issued. It is deleted by destroy().
+	 */
+	public void setUniformAllocator(FrameAllocator allocator) {
+		uniformAllocator = allocator;
+	}
+
+	public FrameAllocator getUniformAllocator() {
+		return uniformAllocator;
+	}
+
+	/**
+	 * Copies the remaining contents of data into this frame's region of the uniform allocator and binds it to the
+	 * uniform buffer binding point. Per-frame values shared by all programs, like the camera-to-clip matrix, belong
+	 * in a block bound to this point instead of being set on each program.
+	 */
+	public void setGlobalBlock(int binding, FloatBuffer data) {
+		int size = data.remaining() * Float.BYTES;
+		int offset = allocateUniform(size);
+
+		ByteBuffer buffer = uniformAllocator.getData();
+		for (int a = 0; a < data.remaining(); a++) {
+			buffer.putFloat(offset + a * Float.BYTES, data.get(data.position() + a));
 		}
+
+		GLState.bindBufferRange(GL_UNIFORM_BUFFER, binding, uniformAllocator.getName(), offset, size);
 	}
 
-	public static class Transform {
-		private Quaternion orient = new Quaternion();
-		private Vector3 scale = new Vector3(1f);
-		private Vector3 translate = new Vector3(0f);
+	private int allocateUniform(int size) {
+		if (uniformAllocator == null) {
+			throw new IllegalStateException("No uniform allocator has been set.");
+		}
 
-		public Matrix4 getMatrix() {
-			return new Matrix4().clearToIdentity()
-			                    .translate(translate)
-			                    .mult(orient.toMatrix(new Matrix4()))
-			                    .scale(scale);
+		return uniformAllocator.allocateUniform(size);
+	}
+
+	/**
+	 * Deletes the buffer instanced draws stream their matrices through and the uniform allocator. Nodes of this scene
+	 * must not be rendered afterwards.
+	 */
+	public void destroy() {
+		if (instanceBuffer != 0) {
+			GLState.deleteBuffer(instanceBuffer);
+			instanceBuffer = 0;
+		}
+
+		if (uniformAllocator != null) {
+			uniformAllocator.destroy();
+			uniformAllocator = null;
 		}
 	}
 
-	public static class SceneTexture {
-		public int texture;
-		public int type;
+	public void render(Matrix4 cameraMatrix) {
+		prepare(cameraMatrix);
+		renderQueued(null, 0, renderQueue.size());
+	}
 
-		public SceneTexture(InputStream is, int creationFlags) throws IOException {
-			if (is == null) {
-				throw new IOException("Invalid InputStream");
+	/**
+	 * Updates the matrices of all nodes and sorts their draws without issuing any draws. The sorted draws can then be
+	 * recorded with record(), split into ranges across threads. Nodes owned by a StaticDrawList and nodes whose
+	 * program is still compiling are left out. The only GL calls made are polling and setting up such programs, and
+	 * reserving this frame's object blocks in the uniform allocator so that record() can write them directly.
+	 *
+	 * @return The number of queued draws.
+	 */
+	public int prepare(Matrix4 cameraMatrix) {
+		for (SceneNode node : nodes.values()) {
+			if (node.parent == null) {
+				node.updateWorldMatrices();
+			}
+		}
+
+		renderQueue.clear();
+		queuedNodes.clear();
+
+		for (SceneNode node : nodes.values()) {
+			if (node.baseVariant.program == null || node.staticList != null) {
+				continue;
 			}
 
-			ImageSet imageSet = DdsLoader.load(is);
-			texture = TextureGenerator.createTexture(imageSet, creationFlags);
-			type = TextureGenerator.getTextureType(imageSet, creationFlags);
+			// keep drawing everything else while a program is still compiling
+			if (!node.baseVariant.program.isReady()) {
+				continue;
+			}
+
+			node.updateObjectMatrix(cameraMatrix);
+
+			renderQueue.add(node.getSortKey(node.baseVariant), queuedNodes.size());
+			queuedNodes.add(node);
+
+			node.reserveObjectBlock(node.baseVariant.program);
 		}
+
+		renderQueue.sort();
+
+		return renderQueue.size();
 	}
 
-	public static class SceneProgram {
-		private ShaderProgram program;
-		private int matrixUniform;
-		private int normalMatrixUniform;
-		private int invNormalMatrixUniform;
+	/**
+	 * Records the queued draws in [start, end) of the last prepare() into list. Calls with disjoint ranges and different
+	 * lists may run concurrently, as long as the lists are replayed in range order before the next prepare(). Each range
+	 * leaves no program or textures bound.
+	 */
+	public void record(CommandList list, int start, int end) {
+		if (list == null) {
+			throw new IllegalArgumentException("list cannot be null.");
+		}
 
-		public SceneProgram(
-			ShaderProgram program, int matrixUniform, int normalMatrixUniform, int invNormalMatrixUniform) {
-			this.program = program;
-			this.matrixUniform = matrixUniform;
-			this.normalMatrixUniform = normalMatrixUniform;
-			this.invNormalMatrixUniform = invNormalMatrixUniform;
+		if (start < 0 || end > renderQueue.size() || start > end) {
+			throw new IllegalArgumentException(
+				"Invalid range [" + start + ", " + end + ") of " + renderQueue.size() + " queued draws.");
 		}
+
+		renderQueued(list, start, end);
 	}
 
-	public static class SceneNode {
-		private Mesh mesh;
-		private Variant baseVariant;
+	/**
+	 * Issues the queued draws in [start, end), or records them into list if it is not null.
+	 */
+	private void renderQueued(CommandList list, int start, int end) {
+		// the shared group is only safe to use on the GL thread
+		ArrayList<SceneNode> group = list == null ? instanceGroup : new ArrayList<SceneNode>();
 
-		private HashMap<String, Variant> variants;
-		private ArrayList<StateBinder> binders;
+		SceneProgram currentProgram = null;
+		ArrayList<TextureBinding> currentTextures = null;
 
-		private Transform nodeTransform = new Transform();
-		private Transform objectTransform = new Transform();
+		for (int a = start; a < end; a++) {
+			final SceneNode node = queuedNodes.get(renderQueue.getItem(a));
+			final Variant variant = node.baseVariant;
 
-		public SceneNode(
-			Mesh mesh,
-			SceneProgram program,
-			Vector3 nodePos,
-			ArrayList<TextureBinding> texBindings,
-			HashMap<String, Variant> variants) {
-			this.mesh = mesh;
+			if (variant.program != currentProgram) {
+				beginProgram(variant.program, list);
+				currentProgram = variant.program;
+			}
 
-			baseVariant = new Variant(program, texBindings);
+			if (node.binders.isEmpty()) {
+				switchTextures(currentTextures, variant.texBindings, list);
+				currentTextures = variant.texBindings;
 
-			this.variants = variants;
+				if (variant.program.isInstanced()) {
+					// the queue is sorted by state, so all nodes that can share this draw follow this one
+					group.clear();
+					group.add(node);
 
-			binders = new ArrayList<>();
+					while (a + 1 < end) {
+						SceneNode next = queuedNodes.get(renderQueue.getItem(a + 1));
+						if (!node.canInstanceWith(next)) {
+							break;
+						}
 
-			nodeTransform.translate.set(nodePos);
-		}
+						group.add(next);
+						a++;
+					}
 
-		public void setScale(Vector3 scale) {
-			nodeTransform.scale.set(scale);
+					renderInstanced(variant.program, node.mesh, group, list);
+				} else {
+					node.renderSingle(variant, list);
+				}
+			} else {
+				// binders may touch any state, including texture units, so this node is drawn in isolation
+				if (currentTextures != null) {
+					switchTextures(currentTextures, null, list);
+					currentTextures = null;
+				}
+
+				node.renderWithBinders(variant, list);
+			}
 		}
 
-		public void rotate(Quaternion orient) {
-			nodeTransform.orient.mult(orient);
+		if (currentTextures != null) {
+			switchTextures(currentTextures, null, list);
 		}
 
-		public void setOrient(Quaternion orient) {
-			nodeTransform.orient.set(orient).normalize();
+		if (currentProgram != null) {
+			endProgram(currentProgram, list);
 		}
+	}
 
-		public Quaternion getOrient() {
-			return nodeTransform.orient;
+	private static void beginProgram(SceneProgram program, CommandList list) {
+		if (list == null) {
+			program.program.begin();
+		} else {
+			list.useProgram(program.program.getProgram());
 		}
+	}
 
-		public void offset(Vector3 offset) {
-			nodeTransform.translate.add(offset);
+	private static void endProgram(SceneProgram program, CommandList list) {
+		if (list == null) {
+			program.program.end();
+		} else {
+			// recorded uniforms are replayed with plain glUniform calls that the program's shadow copies don't see
+			list.execute(program.invalidateUniforms);
+			list.useProgram(0);
 		}
+	}
 
-		public void setTranslate(Vector3 translate) {
-			nodeTransform.translate.set(translate);
+	/**
+	 * Binds the texture set next, only touching the units whose binding differs from current. Units in current that
+	 * next does not use are unbound. Either set may be null.
+	 */
+	private static void switchTextures(
+		ArrayList<TextureBinding> current, ArrayList<TextureBinding> next, CommandList list) {
+		if (current != null) {
+			for (TextureBinding binding : current) {
+				if (next == null || findTextureUnit(next, binding.texUnit) == null) {
+					binding.unbind(list);
+				}
+			}
+		}
+
+		if (next != null) {
+			for (TextureBinding binding : next) {
+				TextureBinding old = current == null ? null : findTextureUnit(current, binding.texUnit);
+				if (old == null || !old.isSameBinding(binding)) {
+					binding.bind(list);
+				}
+			}
+		}
+	}
+
+	private static boolean isSameTextureSet(ArrayList<TextureBinding> set1, ArrayList<TextureBinding> set2) {
+		if (set1 == set2) {
+			return true;
+		}
+
+		if (set1.size() != set2.size()) {
+			return false;
+		}
+
+		for (TextureBinding binding : set1) {
+			TextureBinding other = findTextureUnit(set2, binding.texUnit);
+			if (other == null || !other.isSameBinding(binding)) {
+				return false;
+			}
+		}
+
+		return true;
+	}
+
+	/**
+	 * Draws all nodes in group with a single instanced draw. They must share the program and mesh, and their object
+	 * matrices must be up to date.
+	 */
+	private void renderInstanced(
+		SceneProgram program, Mesh mesh, ArrayList<SceneNode> group, CommandList list) {
+		int required = group.size() * program.getFloatsPerInstance();
+
+		FloatBuffer data;
+		if (list == null) {
+			if (instanceData.capacity() < required) {
+				instanceData = BufferUtils.createFloatBuffer(Math.max(required, instanceData.capacity() * 2));
+			}
+
+			instanceData.clear();
+			data = instanceData;
+		} else {
+			data = list.bufferData(GL_ARRAY_BUFFER, instanceBuffer, GL_STREAM_DRAW, required);
+		}
+
+		for (SceneNode node : group) {
+			node.putInstanceData(program, data);
+		}
+
+		if (list == null) {
+			instanceData.flip();
+
+			GLState.bindBuffer(GL_ARRAY_BUFFER, instanceBuffer);
+			glBufferData(GL_ARRAY_BUFFER, instanceData, GL_STREAM_DRAW);
+			GLStats.add(Counter.UPLOAD_BYTES, instanceData.remaining() * Float.BYTES);
+		}
+
+		drawInstanced(program, mesh, instanceBuffer, 0, group.size(), list);
+	}
+
+	/**
+	 * Draws instanceCount instances of mesh, sourcing the per-instance matrices from buffer starting at offset bytes.
+	 */
+	private static void drawInstanced(
+		SceneProgram program, Mesh mesh, int buffer, int offset, int instanceCount, CommandList list) {
+		if (list == null) {
+			GLState.bindBuffer(GL_ARRAY_BUFFER, buffer);
+			GLState.bindVertexArray(mesh.getVAO());
+		} else {
+			list.bindBuffer(GL_ARRAY_BUFFER, buffer);
+			list.bindVertexArray(mesh.getVAO());
+		}
+
+		boolean hasNormalMatrix = program.instanceNormalMatrixAttrib != -1;
+
+		int stride = program.getFloatsPerInstance() * Float.BYTES;
+		enableInstanceMatrix(program.instanceMatrixAttrib, 4, stride, offset, list);
+		if (hasNormalMatrix) {
+			enableInstanceMatrix(
+				program.instanceNormalMatrixAttrib, 3, stride, offset + Matrix4.LENGTH * Float.BYTES, list);
+		}
+
+		if (list == null) {
+			mesh.renderInstanced(instanceCount);
+		} else {
+			mesh.renderInstanced(list, instanceCount);
+		}
+
+		// leave the mesh's VAO as it was for non-instanced programs
+		disableInstanceMatrix(program.instanceMatrixAttrib, 4, list);
+		if (hasNormalMatrix) {
+			disableInstanceMatrix(program.instanceNormalMatrixAttrib, 3, list);
+		}
+	}
+
+	private static void enableInstanceMatrix(int attrib, int columns, int stride, int offset, CommandList list) {
+		for (int a = 0; a < columns; a++) {
+			int columnOffset = offset + a * columns * Float.BYTES;
+
+			if (list == null) {
+				glEnableVertexAttribArray(attrib + a);
+				glVertexAttribPointer(attrib + a, columns, GL_FLOAT, false, stride, columnOffset);
+				RenderUtils.glVertexAttribDivisor(attrib + a, 1);
+			} else {
+				list.enableVertexAttribArray(attrib + a);
+				list.vertexAttribPointer(attrib + a, columns, GL_FLOAT, false, stride, columnOffset);
+				list.vertexAttribDivisor(attrib + a, 1);
+			}
+		}
+	}
+
+	private static void disableInstanceMatrix(int attrib, int columns, CommandList list) {
+		for (int a = 0; a < columns; a++) {
+			if (list == null) {
+				RenderUtils.glVertexAttribDivisor(attrib + a, 0);
+				glDisableVertexAttribArray(attrib + a);
+			} else {
+				list.vertexAttribDivisor(attrib + a, 0);
+				list.disableVertexAttribArray(attrib + a);
+			}
+		}
+	}
+
+	private static TextureBinding findTextureUnit(ArrayList<TextureBinding> bindings, int texUnit) {
+		for (TextureBinding binding : bindings) {
+			if (binding.texUnit == texUnit) {
+				return binding;
+			}
+		}
+
+		return null;
+	}
+
+	/**
+	 * A fixed set of opaque nodes compiled into a pre-sorted list of draws that is replayed every frame without walking
+	 * the scene. The nodes are left out of Scene.prepare and Scene.render from then on.
+	 *
+	 * Compiling sorts the nodes by state, groups the instanceable ones into instanced draws and caches their
+	 * model-to-world matrices. Each replay then only multiplies in the camera, and the per-instance matrices are kept in
+	 * a buffer of their own that is only re-uploaded when the camera or the list changed. The list is compiled again
+	 * on the next replay whenever one of its nodes is moved, directly or through an ancestor, or gains a StateBinder.
+	 *
+	 * @author Roi Atalla
+	 */
+	public static class StaticDrawList {
+		private final ArrayList<SceneNode> nodes;
+
+		private final RenderQueue queue;
+		private final SceneNode[] sorted;
+		private final Matrix4[] modelMatrices;
+
+		// group g covers sorted[groupStarts[g], groupStarts[g + 1]), the offset is -1 for non-instanced groups
+		private final int[] groupStarts;
+		private final int[] groupOffsets;
+		private int groupCount;
+
+		private FloatBuffer instanceMatrices;
+		private int instanceFloats;
+		private int instanceMatrixBuffer;
+
+		private final Matrix4 lastCameraMatrix = new Matrix4();
+		private boolean isUploaded;
+
+		private boolean isDirty = true;
+
+		public StaticDrawList(Collection<SceneNode> nodes) {
+			if (new HashSet<>(nodes).size() != nodes.size()) {
+				throw new IllegalArgumentException("Nodes must not appear more than once.");
+			}
+
+			for (SceneNode node : nodes) {
+				if (node.baseVariant.program == null) {
+					throw new IllegalArgumentException("Nodes without a program cannot be drawn.");
+				}
+
+				if (node.isTransparent) {
+					throw new IllegalArgumentException("Transparent nodes must be sorted by depth every frame.");
+				}
+
+				if (node.staticList != null) {
+					throw new IllegalArgumentException("Node already belongs to a StaticDrawList.");
+				}
+			}
+
+			this.nodes = new ArrayList<>(nodes);
+
+			for (SceneNode node : this.nodes) {
+				node.staticList = this;
+			}
+
+			int size = this.nodes.size();
+
+			queue = new RenderQueue(Math.max(size, 1));
+			sorted = new SceneNode[size];
+
+			modelMatrices = new Matrix4[size];
+			for (int a = 0; a < size; a++) {
+				modelMatrices[a] = new Matrix4();
+			}
+
+			groupStarts = new int[size + 1];
+			groupOffsets = new int[size];
+
+			instanceMatrixBuffer = glGenBuffers();
+		}
+
+		public int size() {
+			return nodes.size();
+		}
+
+		/**
+		 * @return The number of draw groups issued per replay, each instanced group counting once.
+		 */
+		public int getDrawCount() {
+			if (isDirty) {
+				compile();
+			}
+
+			return groupCount;
+		}
+
+		public void render(Matrix4 cameraMatrix) {
+			update(cameraMatrix, null);
+			draw(null);
+		}
+
+		/**
+		 * Records the replay into list. Nodes of this list must not be modified until list is replayed.
+		 */
+		public void record(CommandList list, Matrix4 cameraMatrix) {
+			if (list == null) {
+				throw new IllegalArgumentException("list cannot be null.");
+			}
+
+			update(cameraMatrix, list);
+			draw(list);
+		}
+
+		/**
+		 * Hands the nodes back to Scene.render and deletes the instance matrix buffer.
+		 */
+		public void destroy() {
+			for (SceneNode node : nodes) {
+				node.staticList = null;
+			}
+
+			nodes.clear();
+			groupCount = 0;
+
+			if (instanceMatrixBuffer != 0) {
+				GLState.deleteBuffer(instanceMatrixBuffer);
+				instanceMatrixBuffer = 0;
+			}
+		}
+
+		private void compile() {
+			queue.clear();
+			for (int a = 0; a < nodes.size(); a++) {
+				SceneNode node = nodes.get(a);
+				queue.add(node.getStateKey(node.baseVariant), a);
+			}
+
+			queue.sort();
+
+			for (int a = 0; a < sorted.length; a++) {
+				SceneNode node = nodes.get(queue.getItem(a));
+				sorted[a] = node;
+				modelMatrices[a].set(node.getWorldMatrix()).mult(node.objectTransform.getMatrix());
+			}
+
+			groupCount = 0;
+			instanceFloats = 0;
+
+			for (int a = 0; a < sorted.length; ) {
+				SceneNode node = sorted[a];
+				SceneProgram program = node.baseVariant.program;
+
+				int end = a + 1;
+
+				if (node.binders.isEmpty() && program.isInstanced()) {
+					while (end < sorted.length && node.canInstanceWith(sorted[end])) {
+						end++;
+					}
+
+					groupOffsets[groupCount] = instanceFloats * Float.BYTES;
+					instanceFloats += (end - a) * program.getFloatsPerInstance();
+				} else {
+					groupOffsets[groupCount] = -1;
+				}
+
+				groupStarts[groupCount++] = a;
+				a = end;
+			}
+
+			groupStarts[groupCount] = sorted.length;
+
+			if (instanceMatrices == null || instanceMatrices.capacity() < instanceFloats) {
+				instanceMatrices = BufferUtils.createFloatBuffer(Math.max(instanceFloats, 1));
+			}
+
+			isUploaded = false;
+			isDirty = false;
+		}
+
+		private void update(Matrix4 cameraMatrix, CommandList list) {
+			if (instanceMatrixBuffer == 0) {
+				throw new IllegalStateException("StaticDrawList has been destroyed.");
+			}
+
+			if (isDirty) {
+				compile();
+			}
+
+			// polled here rather than in draw() since setting up a program that just finished binds it
+			for (int g = 0; g < groupCount; g++) {
+				sorted[groupStarts[g]].baseVariant.program.isReady();
+			}
+
+			for (int a = 0; a < sorted.length; a++) {
+				sorted[a].objectMatrix.set(cameraMatrix).mult(modelMatrices[a]);
+
+				SceneProgram program = sorted[a].baseVariant.program;
+				if (program.isReady) {
+					sorted[a].reserveObjectBlock(program);
+				}
+			}
+
+			if (instanceFloats == 0 || (isUploaded && lastCameraMatrix.equalsExact(cameraMatrix))) {
+				return;
+			}
+
+			FloatBuffer data;
+			if (list == null) {
+				instanceMatrices.clear();
+				data = instanceMatrices;
+			} else {
+				data = list.bufferData(GL_ARRAY_BUFFER, instanceMatrixBuffer, GL_DYNAMIC_DRAW, instanceFloats);
+			}
+
+			for (int g = 0; g < groupCount; g++) {
+				if (groupOffsets[g] == -1) {
+					continue;
+				}
+
+				SceneProgram program = sorted[groupStarts[g]].baseVariant.program;
+				for (int a = groupStarts[g]; a < groupStarts[g + 1]; a++) {
+					sorted[a].putInstanceData(program, data);
+				}
+			}
+
+			if (list == null) {
+				instanceMatrices.flip();
+
+				GLState.bindBuffer(GL_ARRAY_BUFFER, instanceMatrixBuffer);
+				glBufferData(GL_ARRAY_BUFFER, instanceMatrices, GL_DYNAMIC_DRAW);
+				GLStats.add(Counter.UPLOAD_BYTES, instanceMatrices.remaining() * Float.BYTES);
+			}
+
+			lastCameraMatrix.set(cameraMatrix);
+			isUploaded = true;
+		}
+
+		private void draw(CommandList list) {
+			SceneProgram currentProgram = null;
+			ArrayList<TextureBinding> currentTextures = null;
+
+			for (int g = 0; g < groupCount; g++) {
+				SceneNode node = sorted[groupStarts[g]];
+				Variant variant = node.baseVariant;
+
+				if (!variant.program.isReady) {
+					continue;
+				}
+
+				if (variant.program != currentProgram) {
+					beginProgram(variant.program, list);
+					currentProgram = variant.program;
+				}
+
+				if (node.binders.isEmpty()) {
+					switchTextures(currentTextures, variant.texBindings, list);
+					currentTextures = variant.texBindings;
+
+					if (groupOffsets[g] != -1) {
+						drawInstanced(variant.program, node.mesh, instanceMatrixBuffer, groupOffsets[g],
+						              groupStarts[g + 1] - groupStarts[g], list);
+					} else {
+						node.renderSingle(variant, list);
+					}
+				} else {
+					if (currentTextures != null) {
+						switchTextures(currentTextures, null, list);
+						currentTextures = null;
+					}
+
+					node.renderWithBinders(variant, list);
+				}
+			}
+
+			if (currentTextures != null) {
+				switchTextures(currentTextures, null, list);
+			}
+
+			if (currentProgram != null) {
+				endProgram(currentProgram, list);
+			}
+		}
+	}
+
+	public static class Transform {
+		private Quaternion orient = new Quaternion();
+		private Vector3 scale = new Vector3(1f);
+		private Vector3 translate = new Vector3(0f);
+
+		private Matrix4 matrix = new Matrix4();
+		private boolean isDirty = false;
+
+		public Quaternion getOrient() {
+			return orient;
+		}
+
+		public Vector3 getScale() {
+			return scale;
+		}
+
+		public Vector3 getTranslate() {
+			return translate;
+		}
+
+		public void setOrient(Quaternion orient) {
+			this.orient.set(orient).normalize();
+			isDirty = true;
+		}
+
+		public void rotate(Quaternion orient) {
+			this.orient.mult(orient);
+			isDirty = true;
+		}
+
+		public void setScale(Vector3 scale) {
+			this.scale.set(scale);
+			isDirty = true;
+		}
+
+		public void setTranslate(Vector3 translate) {
+			this.translate.set(translate);
+			isDirty = true;
+		}
+
+		public void offset(Vector3 offset) {
+			translate.add(offset);
+			isDirty = true;
+		}
+
+		/**
+		 * Marks the cached matrix as stale. Only needed after modifying the objects returned by the getters directly.
+		 */
+		public void invalidate() {
+			isDirty = true;
+		}
+
+		/**
+		 * Returns the cached translate * orient * scale matrix, recomposing it only if the transform changed.
+		 * The returned Matrix4 is owned by this Transform and must not be modified.
+		 */
+		public Matrix4 getMatrix() {
+			if (isDirty) {
+				matrix.clearToTransform(translate, orient, scale);
+				isDirty = false;
+			}
+
+			return matrix;
+		}
+	}
+
+	public static class SceneTexture {
+		public int texture;
+		public int type;
+
+		public SceneTexture(InputStream is, int creationFlags) throws IOException {
+			if (is == null) {
+				throw new IOException("Invalid InputStream");
+			}
+
+			ImageSet imageSet = DdsLoader.load(is);
+			texture = TextureGenerator.createTexture(imageSet, creationFlags);
+			type = TextureGenerator.getTextureType(imageSet, creationFlags);
+
+			// TextureGenerator binds textures directly
+			GLState.invalidate();
+		}
+	}
+
+	public static class SceneProgram {
+		private ShaderProgram program;
+		private int matrixUniform;
+		private int normalMatrixUniform;
+		private int invNormalMatrixUniform;
+
+		private int instanceMatrixAttrib;
+		private int instanceNormalMatrixAttrib;
+
+		private int objectBlockBinding = -1;
+		private int objectBlockSize;
+
+		private final Runnable invalidateUniforms;
+
+		// run once the program is linked, then cleared
+		private ArrayList<Runnable> pendingSetup = new ArrayList<>();
+		private boolean isReady;
+
+		public SceneProgram(
+			ShaderProgram program, int matrixUniform, int normalMatrixUniform, int invNormalMatrixUniform) {
+			this(program, matrixUniform, normalMatrixUniform, invNormalMatrixUniform, -1, -1);
+		}
+
+		/**
+		 * An instanced program reads the model-to-camera matrix as a mat4 vertex attribute starting at
+		 * instanceMatrixAttrib, and optionally the normal matrix as a mat3 starting at instanceNormalMatrixAttrib. Pass -1
+		 * for instanceMatrixAttrib to use the uniforms instead.
+		 */
+		public SceneProgram(
+			ShaderProgram program,
+			int matrixUniform,
+			int normalMatrixUniform,
+			int invNormalMatrixUniform,
+			int instanceMatrixAttrib,
+			int instanceNormalMatrixAttrib) {
+			this.program = program;
+			this.matrixUniform = matrixUniform;
+			this.normalMatrixUniform = normalMatrixUniform;
+			this.invNormalMatrixUniform = invNormalMatrixUniform;
+			this.instanceMatrixAttrib = instanceMatrixAttrib;
+			this.instanceNormalMatrixAttrib = instanceNormalMatrixAttrib;
+
+			invalidateUniforms = program::invalidateUniforms;
+		}
+
+		public boolean isInstanced() {
+			return instanceMatrixAttrib != -1;
+		}
+
+		public ShaderProgram getProgram() {
+			return program;
+		}
+
+		/**
+		 * Polls the program without blocking, see ShaderProgram.isReady().
+		 */
+		public boolean isReady() {
+			if (!isReady && program.isReady()) {
+				runSetup();
+			}
+
+			return isReady;
+		}
+
+		/**
+		 * Blocks until the program is linked and set up.
+		 */
+		public void finish() {
+			if (!isReady) {
+				program.finish();
+				runSetup();
+			}
+		}
+
+		private void addSetup(Runnable setup) {
+			if (isReady) {
+				throw new IllegalStateException("Program is already set up.");
+			}
+
+			pendingSetup.add(setup);
+		}
+
+		private void runSetup() {
+			for (Runnable setup : pendingSetup) {
+				setup.run();
+			}
+
+			pendingSetup = null;
+			isReady = true;
+		}
+
+		/**
+		 * Makes this program read its per-object matrices from the given uniform block, bound to binding. Each draw
+		 * streams them through the uniform allocator and binds them with a single glBindBufferRange. The block must
+		 * be laid out as std140 and start with these members, any of the trailing ones may be left out. Members
+		 * after them are left undefined.
+		 *
+		 * <pre>
+		 * mat4 modelToCamera;
+		 * mat3 normalModelToCamera;
+		 * mat3 normalCameraToModel;
+		 * </pre>
+		 */
+		public void setObjectBlock(int blockIndex, int binding) {
+			if (isInstanced()) {
+				throw new IllegalStateException("Instanced programs read their matrices from vertex attributes.");
+			}
+
+			int size = glGetActiveUniformBlocki(program.getProgram(), blockIndex, GL_UNIFORM_BLOCK_DATA_SIZE);
+			if (size < OBJECT_BLOCK_MATRIX_SIZE) {
+				throw new IllegalArgumentException("Object block is too small to hold a mat4.");
+			}
+
+			glUniformBlockBinding(program.getProgram(), blockIndex, binding);
+
+			objectBlockBinding = binding;
+			objectBlockSize = size;
+		}
+
+		public boolean hasObjectBlock() {
+			return objectBlockBinding != -1;
+		}
+
+		private int getFloatsPerInstance() {
+			return instanceNormalMatrixAttrib != -1 ? Matrix4.LENGTH + Matrix3.LENGTH : Matrix4.LENGTH;
+		}
+	}
+
+	public static class SceneNode {
+		private Mesh mesh;
+		private Variant baseVariant;
+
+		private HashMap<String, Variant> variants;
+		private ArrayList<StateBinder> binders;
+
+		private Transform nodeTransform = new Transform();
+		private Transform objectTransform = new Transform();
+
+		private SceneNode parent;
+		private ArrayList<SceneNode> children = new ArrayList<>();
+
+		private Matrix4 worldMatrix = new Matrix4();
+		private boolean isWorldDirty = true;
+		private boolean hasDirtyChildren = false;
+
+		private Matrix4 objectMatrix = new Matrix4();
+
+		private boolean isTransparent;
+
+		private StaticDrawList staticList;
+
+		// the scene whose instance buffer and uniform allocator this node's draws go through, null if not loaded by a
+		// scene
+		private Scene scene;
+
+		// this frame's object block in the uniform allocator, -1 if none was reserved
+		private int objectBlockOffset = -1;
+		private int objectBlockReserved;
+
+		private Matrix4 normalSourceMatrix = new Matrix4();
+		private Matrix3 normalMatrix = new Matrix3();
+		private Matrix3 invNormalMatrix = new Matrix3();
+		private boolean hasNormalMatrices;
+
+		public SceneNode(
+			Mesh mesh,
+			SceneProgram program,
+			Vector3 nodePos,
+			ArrayList<TextureBinding> texBindings,
+			HashMap<String, Variant> variants) {
+			this.mesh = mesh;
+
+			baseVariant = new Variant(program, texBindings);
+
+			this.variants = variants;
+
+			binders = new ArrayList<>();
+
+			nodeTransform.setTranslate(nodePos);
+		}
+
+		public void setScale(Vector3 scale) {
+			nodeTransform.setScale(scale);
+			invalidateWorldMatrix();
+		}
+
+		public void rotate(Quaternion orient) {
+			nodeTransform.rotate(orient);
+			invalidateWorldMatrix();
+		}
+
+		public void setOrient(Quaternion orient) {
+			nodeTransform.setOrient(orient);
+			invalidateWorldMatrix();
+		}
+
+		/**
+		 * The returned Quaternion must not be modified directly, use setOrient or rotate instead.
+		 */
+		public Quaternion getOrient() {
+			return nodeTransform.getOrient();
+		}
+
+		public void offset(Vector3 offset) {
+			nodeTransform.offset(offset);
+			invalidateWorldMatrix();
+		}
+
+		public void setTranslate(Vector3 translate) {
+			nodeTransform.setTranslate(translate);
+			invalidateWorldMatrix();
+		}
+
+		public SceneNode getParent() {
+			return parent;
+		}
+
+		public List<SceneNode> getChildren() {
+			return Collections.unmodifiableList(children);
+		}
+
+		/**
+		 * Attaches child to this node, detaching it from its previous parent. The child's transform becomes relative
+		 * to this node.
+		 */
+		public void addChild(SceneNode child) {
+			for (SceneNode node = this; node != null; node = node.parent) {
+				if (node == child) {
+					throw new IllegalArgumentException("Cannot attach a node to itself or one of its descendants.");
+				}
+			}
+
+			if (child.parent != null) {
+				child.parent.removeChild(child);
+			}
+
+			children.add(child);
+			child.parent = this;
+			child.invalidateWorldMatrix();
+		}
+
+		public void removeChild(SceneNode child) {
+			if (child.parent != this) {
+				throw new IllegalArgumentException("Node is not a child of this node.");
+			}
+
+			children.remove(child);
+			child.parent = null;
+			child.invalidateWorldMatrix();
+		}
+
+		/**
+		 * Returns the node-to-world matrix, the product of this node's and all its ancestors' transforms. It is only
+		 * recomputed when this node or one of its ancestors has moved.
+		 */
+		public Matrix4 getWorldMatrix() {
+			if (isWorldDirty) {
+				if (parent == null) {
+					worldMatrix.set(nodeTransform.getMatrix());
+				} else {
+					worldMatrix.set(parent.getWorldMatrix()).multAffine(nodeTransform.getMatrix());
+				}
+
+				isWorldDirty = false;
+			}
+
+			return worldMatrix;
+		}
+
+		private void invalidateWorldMatrix() {
+			markWorldDirty();
+
+			for (SceneNode node = parent; node != null && !node.hasDirtyChildren; node = node.parent) {
+				node.hasDirtyChildren = true;
+			}
+		}
+
+		private void markWorldDirty() {
+			// a dirty node's descendants are always dirty too, so there is no need to go any further
+			if (isWorldDirty) {
+				return;
+			}
+
+			isWorldDirty = true;
+
+			if (staticList != null) {
+				staticList.isDirty = true;
+			}
+
+			for (SceneNode child : children) {
+				child.markWorldDirty();
+			}
+		}
+
+		private void updateWorldMatrices() {
+			if (!isWorldDirty && !hasDirtyChildren) {
+				return;
+			}
+
+			getWorldMatrix();
+			hasDirtyChildren = false;
+
+			for (SceneNode child : children) {
+				child.updateWorldMatrices();
+			}
 		}
 
 		public void setStateBinder(StateBinder binder) {
 			binders.add(binder);
+
+			if (staticList != null) {
+				staticList.isDirty = true;
+			}
+		}
+
+		/**
+		 * @return The StaticDrawList this node is drawn by, or null if it is drawn by Scene.render.
+		 */
+		public StaticDrawList getStaticList() {
+			return staticList;
 		}
 
 		public int getProgram() {
@@ -700,56 +1795,292 @@ public class Scene {
 		}
 
 		private void render(Variant variant, Matrix4 baseMatrix) {
-			baseMatrix = new Matrix4(baseMatrix).mult(nodeTransform.getMatrix());
-			Matrix4 objectMatrix = new Matrix4(baseMatrix).mult(objectTransform.getMatrix());
+			variant.program.finish();
+
+			updateObjectMatrix(baseMatrix);
 
 			variant.program.program.begin();
-			glUniformMatrix4(variant.program.matrixUniform, false, objectMatrix.toBuffer());
+			uploadMatrices(variant.program, null);
+			renderWithBinders(variant);
+			variant.program.program.end();
+		}
+
+		/**
+		 * Draws this node with its program already in use and its textures already bound, or records the draw into
+		 * list if it is not null.
+		 */
+		private void renderSingle(Variant variant, CommandList list) {
+			uploadMatrices(variant.program, list);
+
+			if (list == null) {
+				mesh.render();
+			} else {
+				mesh.render(list);
+			}
+		}
+
+		/**
+		 * Draws this node with its program already in use, binding its own textures around the binders.
+		 */
+		private void renderWithBinders(final Variant variant, CommandList list) {
+			uploadMatrices(variant.program, list);
+
+			if (list == null) {
+				renderWithBinders(variant);
+			} else {
+				// binders make their own GL calls, so they run on the GL thread during replay
+				list.execute(() -> renderWithBinders(variant));
+			}
+		}
+
+		private void putInstanceData(SceneProgram program, FloatBuffer data) {
+			objectMatrix.toBuffer(data);
+
+			if (program.instanceNormalMatrixAttrib != -1) {
+				updateNormalMatrices();
+				normalMatrix.toBuffer(data);
+			}
+		}
+
+		private void updateObjectMatrix(Matrix4 baseMatrix) {
+			objectMatrix.set(baseMatrix).mult(getWorldMatrix()).mult(objectTransform.getMatrix());
+		}
+
+		/**
+		 * Uploads the matrix uniforms, or records them into list if it is not null.
+		 */
+		private void uploadMatrices(SceneProgram program, CommandList list) {
+			if (program.objectBlockBinding != -1) {
+				uploadObjectBlock(program, list);
+				return;
+			}
+
+			if (program.matrixUniform != -1) {
+				if (list == null) {
+					program.program.setUniformMatrix4(program.matrixUniform, objectMatrix);
+				} else {
+					list.uniformMatrix4(program.matrixUniform, objectMatrix);
+				}
+			}
+
+			if (program.normalMatrixUniform != -1 || program.invNormalMatrixUniform != -1) {
+				updateNormalMatrices();
+
+				if (program.normalMatrixUniform != -1) {
+					if (list == null) {
+						program.program.setUniformMatrix3(program.normalMatrixUniform, normalMatrix);
+					} else {
+						list.uniformMatrix3(program.normalMatrixUniform, normalMatrix);
+					}
+				}
+
+				if (program.invNormalMatrixUniform != -1) {
+					if (list == null) {
+						program.program.setUniformMatrix3(program.invNormalMatrixUniform, invNormalMatrix);
+					} else {
+						list.uniformMatrix3(program.invNormalMatrixUniform, invNormalMatrix);
+					}
+				}
+			}
+		}
+
+		/**
+		 * Allocates this frame's object block on the GL thread, since the allocator maps and fences its regions there.
+		 */
+		private void reserveObjectBlock(SceneProgram program) {
+			if (program.hasObjectBlock()) {
+				objectBlockOffset = getScene().allocateUniform(program.objectBlockSize);
+				objectBlockReserved = program.objectBlockSize;
+			}
+		}
+
+		/**
+		 * Writes the object block into the space reserved by prepare() or StaticDrawList, which lets recording threads
+		 * write straight into the mapped allocator and only record the bind. Direct draws without a reservation
+		 * allocate here.
+		 */
+		private void uploadObjectBlock(SceneProgram program, CommandList list) {
+			FrameAllocator uniformAllocator = getScene().uniformAllocator;
+
+			int offset = objectBlockOffset;
+			objectBlockOffset = -1;
+
+			// a variant's program may need a larger block than the base program it was reserved for
+			if (offset == -1 || objectBlockReserved < program.objectBlockSize) {
+				if (list != null) {
+					throw new IllegalStateException("No object block was reserved for this node by prepare().");
+				}
+
+				offset = getScene().allocateUniform(program.objectBlockSize);
+			}
+
+			boolean hasNormalMatrix = program.objectBlockSize >= OBJECT_BLOCK_NORMAL_SIZE;
+			boolean hasInvNormalMatrix = program.objectBlockSize >= OBJECT_BLOCK_INV_NORMAL_SIZE;
+
+			if (hasNormalMatrix) {
+				updateNormalMatrices();
+			}
+
+			putObjectBlock(uniformAllocator.getData(), offset, objectMatrix, hasNormalMatrix ? normalMatrix : null,
+			               hasInvNormalMatrix ? invNormalMatrix : null);
+
+			if (list == null) {
+				GLState.bindBufferRange(GL_UNIFORM_BUFFER, program.objectBlockBinding, uniformAllocator.getName(),
+				                        offset, program.objectBlockSize);
+			} else {
+				list.bindBufferRange(GL_UNIFORM_BUFFER, program.objectBlockBinding, uniformAllocator.getName(),
+				                     offset, program.objectBlockSize);
+			}
+		}
+
+		private Scene getScene() {
+			if (scene == null) {
+				throw new IllegalStateException("Nodes with an object block must be loaded by a Scene.");
+			}
+
+			return scene;
+		}
 
-			if (variant.program.normalMatrixUniform != -1) {
-				glUniformMatrix3(variant.program.normalMatrixUniform,
-				                 false,
-				                 new Matrix3().set4x4(objectMatrix.inverse().transpose()).toBuffer());
+		/**
+		 * Writes the block at offset with absolute puts only, so that several threads may write into the same buffer.
+		 */
+		private static void putObjectBlock(
+			ByteBuffer data, int offset, Matrix4 matrix, Matrix3 normal, Matrix3 invNormal) {
+			for (int a = 0; a < Matrix4.LENGTH; a++) {
+				data.putFloat(offset + a * Float.BYTES, matrix.get(a));
 			}
 
-			if (variant.program.invNormalMatrixUniform != -1) {
-				glUniformMatrix3(variant.program.invNormalMatrixUniform,
-				                 false,
-				                 new Matrix3().set4x4(objectMatrix.inverse().transpose()).inverse().toBuffer());
+			if (normal != null) {
+				putStd140(normal, data, offset + OBJECT_BLOCK_MATRIX_SIZE);
 			}
 
+			if (invNormal != null) {
+				putStd140(invNormal, data, offset + OBJECT_BLOCK_NORMAL_SIZE);
+			}
+		}
+
+		/**
+		 * std140 pads each column of a mat3 to a vec4.
+		 */
+		private static void putStd140(Matrix3 matrix, ByteBuffer data, int offset) {
+			for (int col = 0; col < 3; col++) {
+				for (int row = 0; row < 3; row++) {
+					data.putFloat(offset + (col * 4 + row) * Float.BYTES, matrix.get(col, row));
+				}
+			}
+		}
+
+		private void renderWithBinders(Variant variant) {
 			for (StateBinder binder : binders) {
 				binder.bindState(variant.program.program);
 			}
 
 			for (TextureBinding binding : variant.texBindings) {
-				glActiveTexture(GL_TEXTURE0 + binding.texUnit);
-				glBindTexture(binding.tex.type, binding.tex.texture);
-				glBindSampler(binding.texUnit, binding.sampler);
+				binding.bind();
 			}
 
-			mesh.render();
+			if (variant.program.isInstanced()) {
+				if (scene == null) {
+					throw new IllegalStateException("Instanced nodes must be loaded by a Scene.");
+				}
+
+				scene.instanceGroup.clear();
+				scene.instanceGroup.add(this);
+				scene.renderInstanced(variant.program, mesh, scene.instanceGroup, null);
+			} else {
+				mesh.render();
+			}
 
 			for (TextureBinding binding : variant.texBindings) {
-				glActiveTexture(GL_TEXTURE0 + binding.texUnit);
-				glBindTexture(binding.tex.type, 0);
-				glBindSampler(binding.texUnit, 0);
+				binding.unbind();
 			}
 
 			for (StateBinder binder : binders) {
 				binder.unbindState(variant.program.program);
 			}
+		}
 
-			variant.program.program.end();
+		/**
+		 * Packs the state needed to draw this node into a key so that sorting the keys groups draws by program, then
+		 * texture set, then mesh. Opaque nodes come first and are drawn front to back within a state group. Transparent
+		 * nodes come last and are drawn back to front regardless of state.
+		 *
+		 * Must be called after updateObjectMatrix.
+		 */
+		private long getSortKey(Variant variant) {
+			// the camera looks down -Z, the bits of a positive float sort the same way as its value
+			float distance = Math.max(-objectMatrix.get(14), 0);
+			long depth = Float.floatToIntBits(distance) >>> 15;
+
+			if (isTransparent) {
+				long program = variant.program.program.getProgram() & 0x7FFF;
+				long textures = variant.textureSetKey & 0xFFFF;
+				long vao = mesh.getVAO() & 0xFFFF;
+
+				return (1L << 63) | ((0xFFFF - depth) << 47) | (program << 32) | (textures << 16) | vao;
+			}
+
+			return getStateKey(variant) | depth;
+		}
+
+		/**
+		 * The opaque sort key without the depth, which only depends on state and not on the camera.
+		 */
+		private long getStateKey(Variant variant) {
+			long program = variant.program.program.getProgram() & 0x7FFF;
+			long textures = variant.textureSetKey & 0xFFFF;
+			long vao = mesh.getVAO() & 0xFFFF;
+
+			return (program << 48) | (textures << 32) | (vao << 16);
+		}
+
+		private boolean canInstanceWith(SceneNode node) {
+			return node.baseVariant.program == baseVariant.program && node.mesh == mesh && binders.isEmpty() &&
+			       node.binders.isEmpty() && isSameTextureSet(baseVariant.texBindings, node.baseVariant.texBindings);
+		}
+
+		public boolean isTransparent() {
+			return isTransparent;
+		}
+
+		public void setTransparent(boolean isTransparent) {
+			if (isTransparent && staticList != null) {
+				throw new IllegalStateException("Nodes in a StaticDrawList cannot be transparent.");
+			}
+
+			this.isTransparent = isTransparent;
+		}
+
+		private void updateNormalMatrices() {
+			if (hasNormalMatrices && normalSourceMatrix.equalsExact(objectMatrix)) {
+				return;
+			}
+
+			normalSourceMatrix.set(objectMatrix);
+			normalMatrix.setNormalMatrix(objectMatrix);
+
+			// the inverse of the normal matrix is simply the transpose of the upper 3x3
+			invNormalMatrix.set4x4(objectMatrix).transpose();
+
+			hasNormalMatrices = true;
 		}
 
 		public static class Variant {
 			private SceneProgram program;
 			private ArrayList<TextureBinding> texBindings;
 
+			private int textureSetKey;
+
 			public Variant(SceneProgram program, ArrayList<TextureBinding> texBindings) {
 				this.program = program;
 				this.texBindings = texBindings;
+
+				int hash = 0;
+				for (TextureBinding binding : texBindings) {
+					hash = 31 * hash + ((binding.tex.texture * 31) + binding.texUnit) * 31 + binding.sampler;
+				}
+
+				textureSetKey = hash ^ (hash >>> 16);
 			}
 		}
 	}
@@ -764,5 +2095,37 @@ public class Scene {
 			this.texUnit = texUnit;
 			this.sampler = sampler;
 		}
+
+		private boolean isSameBinding(TextureBinding binding) {
+			return tex.texture == binding.tex.texture && texUnit == binding.texUnit && sampler == binding.sampler;
+		}
+
+		private void bind() {
+			bind(null);
+		}
+
+		private void unbind() {
+			unbind(null);
+		}
+
+		private void bind(CommandList list) {
+			if (list == null) {
+				GLState.bindTexture(texUnit, tex.type, tex.texture);
+				GLState.bindSampler(texUnit, sampler);
+			} else {
+				list.bindTexture(texUnit, tex.type, tex.texture);
+				list.bindSampler(texUnit, sampler);
+			}
+		}
+
+		private void unbind(CommandList list) {
+			if (list == null) {
+				GLState.bindTexture(texUnit, tex.type, 0);
+				GLState.bindSampler(texUnit, 0);
+			} else {
+				list.bindTexture(texUnit, tex.type, 0);
+				list.bindSampler(texUnit, 0);
+			}
+		}
 	}
 }
@@ -2,7 +2,7 @@ package com.ra4king.opengl.util.scene.binders;
 
 import static org.lwjgl.opengl.GL20.*;
 
-import java.util.HashMap;
+import java.util.Arrays;
 
 import com.ra4king.opengl.util.ShaderProgram;
 
@@ -16,16 +16,24 @@ public interface StateBinder {
 }
 
 abstract class UniformBinderBase implements StateBinder {
-	private HashMap<ShaderProgram,Integer> programUniformLocation = new HashMap<>();
+	// indexed by ShaderProgram.getId(), -1 for unassociated programs
+	private int[] uniformLocations = new int[0];
 	
 	public void associateWithProgram(ShaderProgram program, String uniform) {
-		programUniformLocation.put(program, glGetUniformLocation(program.getProgram(), uniform));
+		int id = program.getId();
+		if(id >= uniformLocations.length) {
+			int oldLength = uniformLocations.length;
+			uniformLocations = Arrays.copyOf(uniformLocations, Math.max(id + 1, oldLength * 2));
+			Arrays.fill(uniformLocations, oldLength, uniformLocations.length, -1);
+		}
+		
+		uniformLocations[id] = glGetUniformLocation(program.getProgram(), uniform);
 	}
 	
 	protected int getUniformLocation(ShaderProgram program) {
-		Integer i = programUniformLocation.get(program);
-		if(i == -1)
+		int id = program.getId();
+		if(id >= uniformLocations.length || uniformLocations[id] == -1)
 			throw new IllegalArgumentException("Unassociated program");
-		return i;
+		return uniformLocations[id];
 	}
 }
@@ -0,0 +1,39 @@
+package com.ra4king.opengl.util.scene.binders;
+
+import static org.lwjgl.opengl.GL43.*;
+
+import com.ra4king.opengl.util.ShaderProgram;
+import com.ra4king.opengl.util.render.GLState;
+
+/**
+ * @author Roi Atalla
+ */
+public class StorageBlockBinder implements StateBinder {
+	public int blockIndex;
+	public int storageBuffer;
+	public int bufferOffset;
+	public int bufferSize;
+	
+	public StorageBlockBinder() {}
+	
+	public StorageBlockBinder(int blockIndex, int storageBuffer, int bufferOffset, int bufferSize) {
+		setValue(blockIndex, storageBuffer, bufferOffset, bufferSize);
+	}
+	
+	public void setValue(int blockIndex, int storageBuffer, int bufferOffset, int bufferSize) {
+		this.blockIndex = blockIndex;
+		this.storageBuffer = storageBuffer;
+		this.bufferOffset = bufferOffset;
+		this.bufferSize = bufferSize;
+	}
+	
+	@Override
+	public void bindState(ShaderProgram program) {
+		GLState.bindBufferRange(GL_SHADER_STORAGE_BUFFER, blockIndex, storageBuffer, bufferOffset, bufferSize);
+	}
+	
+	@Override
+	public void unbindState(ShaderProgram program) {
+		GLState.bindBufferBase(GL_SHADER_STORAGE_BUFFER, blockIndex, 0);
+	}
+}
@@ -1,10 +1,9 @@
 package com.ra4king.opengl.util.scene.binders;
 
 import static org.lwjgl.opengl.GL11.*;
-import static org.lwjgl.opengl.GL13.*;
-import static org.lwjgl.opengl.GL33.*;
 
 import com.ra4king.opengl.util.ShaderProgram;
+import com.ra4king.opengl.util.render.GLState;
 
 /**
  * @author Roi Atalla
@@ -30,15 +29,13 @@ public class TextureBinder implements StateBinder {
 	
 	@Override
 	public void bindState(ShaderProgram program) {
-		glActiveTexture(GL_TEXTURE0 + texUnit);
-		glBindTexture(texType, tex);
-		glBindSampler(texUnit, sampler);
+		GLState.bindTexture(texUnit, texType, tex);
+		GLState.bindSampler(texUnit, sampler);
 	}
 	
 	@Override
 	public void unbindState(ShaderProgram program) {
-		glActiveTexture(GL_TEXTURE0 + texUnit);
-		glBindTexture(texType, 0);
-		glBindSampler(texUnit, 0);
+		GLState.bindTexture(texUnit, texType, 0);
+		GLState.bindSampler(texUnit, 0);
 	}
 }
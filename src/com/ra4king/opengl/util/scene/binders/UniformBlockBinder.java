@@ -1,9 +1,9 @@
 package com.ra4king.opengl.util.scene.binders;
 
-import static org.lwjgl.opengl.GL30.*;
 import static org.lwjgl.opengl.GL31.*;
 
 import com.ra4king.opengl.util.ShaderProgram;
+import com.ra4king.opengl.util.render.GLState;
 
 /**
  * @author Roi Atalla
@@ -29,11 +29,11 @@ public class UniformBlockBinder implements StateBinder {
 	
 	@Override
 	public void bindState(ShaderProgram program) {
-		glBindBufferRange(GL_UNIFORM_BUFFER, blockIndex, uniformBuffer, bufferOffset, bufferSize);
+		GLState.bindBufferRange(GL_UNIFORM_BUFFER, blockIndex, uniformBuffer, bufferOffset, bufferSize);
 	}
 	
 	@Override
 	public void unbindState(ShaderProgram program) {
-		glBindBufferBase(GL_UNIFORM_BUFFER, blockIndex, 0);
+		GLState.bindBufferBase(GL_UNIFORM_BUFFER, blockIndex, 0);
 	}
 }
@@ -1,7 +1,5 @@
 package com.ra4king.opengl.util.scene.binders;
 
-import static org.lwjgl.opengl.GL20.*;
-
 import com.ra4king.opengl.util.ShaderProgram;
 
 /**
@@ -26,7 +24,7 @@ public class UniformIntBinder extends UniformBinderBase {
 	
 	@Override
 	public void bindState(ShaderProgram program) {
-		glUniform1i(getUniformLocation(program), value);
+		program.setUniform1i(getUniformLocation(program), value);
 	}
 	
 	@Override
@@ -1,7 +1,5 @@
 package com.ra4king.opengl.util.scene.binders;
 
-import static org.lwjgl.opengl.GL20.glUniformMatrix4;
-
 import com.ra4king.opengl.util.ShaderProgram;
 import com.ra4king.opengl.util.math.Matrix4;
 
@@ -27,7 +25,7 @@ public class UniformMat4Binder extends UniformBinderBase {
 
 	@Override
 	public void bindState(ShaderProgram program) {
-		glUniformMatrix4(getUniformLocation(program), false, value.toBuffer());
+		program.setUniformMatrix4(getUniformLocation(program), value);
 	}
 
 	@Override
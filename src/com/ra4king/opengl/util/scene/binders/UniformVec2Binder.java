@@ -1,7 +1,5 @@
 package com.ra4king.opengl.util.scene.binders;
 
-import static org.lwjgl.opengl.GL20.glUniform2;
-
 import com.ra4king.opengl.util.ShaderProgram;
 import com.ra4king.opengl.util.math.Vector2;
 
@@ -27,7 +25,7 @@ public class UniformVec2Binder extends UniformBinderBase {
 	
 	@Override
 	public void bindState(ShaderProgram program) {
-		glUniform2(getUniformLocation(program), value.toBuffer());
+		program.setUniform2f(getUniformLocation(program), value.x(), value.y());
 	}
 	
 	@Override
@@ -1,7 +1,5 @@
 package com.ra4king.opengl.util.scene.binders;
 
-import static org.lwjgl.opengl.GL20.glUniform3;
-
 import com.ra4king.opengl.util.ShaderProgram;
 import com.ra4king.opengl.util.math.Vector3;
 
@@ -27,7 +25,7 @@ public class UniformVec3Binder extends UniformBinderBase {
 	
 	@Override
 	public void bindState(ShaderProgram program) {
-		glUniform3(getUniformLocation(program), value.toBuffer());
+		program.setUniform3f(getUniformLocation(program), value.x(), value.y(), value.z());
 	}
 	
 	@Override
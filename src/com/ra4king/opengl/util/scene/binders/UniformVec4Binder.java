@@ -1,7 +1,5 @@
 package com.ra4king.opengl.util.scene.binders;
 
-import static org.lwjgl.opengl.GL20.glUniform4;
-
 import com.ra4king.opengl.util.ShaderProgram;
 import com.ra4king.opengl.util.math.Vector4;
 
@@ -27,7 +25,7 @@ public class UniformVec4Binder extends UniformBinderBase {
 	
 	@Override
 	public void bindState(ShaderProgram program) {
-		glUniform4(getUniformLocation(program), value.toBuffer());
+		program.setUniform4f(getUniformLocation(program), value.x(), value.y(), value.z(), value.w());
 	}
 	
 	@Override